@@ -0,0 +1,140 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+
+
+/**
+ * Merges concurrent increments of the same products from different clients into a single transaction
+ * (flat combining): each request is queued in the slot of its products and the client that holds the slot's lock
+ * executes the sum of the queued amounts with its own connection, completing all requests of the batch
+ */
+public class AddCombiner {
+
+    private static class Request {
+        final int amount;
+        final Thread waiter;
+        final long begin;
+        boolean result;
+        volatile boolean done;
+
+        Request(int amount) {
+            this.amount = amount;
+            this.waiter = Thread.currentThread();
+            this.begin = System.nanoTime();
+        }
+    }
+
+    private static class Slot {
+        final ReentrantLock lock = new ReentrantLock();
+        final ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<>();
+    }
+
+    private Map<Object, Slot> slots;
+    private LongAdder requests;
+    private LongAdder batches;
+    // time between the submission of a request and the beginning of its batch (nanos)
+    private LongAdder addedLatency;
+
+
+    public AddCombiner() {
+        this.slots = new ConcurrentHashMap<>();
+        this.requests = new LongAdder();
+        this.batches = new LongAdder();
+        this.addedLatency = new LongAdder();
+    }
+
+
+    private static Object key(int[] pIds) {
+        return pIds.length == 1 ? (Object) pIds[0] : Arrays.stream(pIds).boxed().collect(Collectors.toList());
+    }
+
+
+    /**
+     * Increments the stock of some products, possibly combined with other clients' increments of the same products
+     * @param pIds Products, sorted
+     * @param amount Amount to increment
+     * @param execute Executes an increment of the products with the given (combined) amount, returning if it committed
+     * @return Result of the transaction that included this increment
+     */
+    public boolean increment(int[] pIds, int amount, IntPredicate execute) {
+        Slot slot = slots.computeIfAbsent(key(pIds), k -> new Slot());
+        Request request = new Request(amount);
+        slot.pending.add(request);
+        while (!request.done) {
+            if (slot.lock.tryLock()) {
+                try {
+                    if (!request.done) {
+                        combine(slot, execute);
+                    }
+                }
+                finally {
+                    slot.lock.unlock();
+                }
+            }
+            else {
+                // woken up by the combiner
+                LockSupport.parkNanos(slot, 10000);
+            }
+        }
+        return request.result;
+    }
+
+
+    /**
+     * Executes all pending requests of a slot in a single transaction (called with the slot's lock)
+     */
+    private void combine(Slot slot, IntPredicate execute) {
+        List<Request> batch = new ArrayList<>();
+        int total = 0;
+        Request r;
+        while ((r = slot.pending.poll()) != null) {
+            batch.add(r);
+            total += r.amount;
+        }
+
+        long begin = System.nanoTime();
+        boolean result = false;
+        try {
+            result = execute.test(total);
+        }
+        finally {
+            // the batch is completed (as failed if the execution threw) so its waiters do not spin forever
+            requests.add(batch.size());
+            batches.increment();
+            for (Request b: batch) {
+                addedLatency.add(begin - b.begin);
+                b.result = result;
+                b.done = true;
+                if (b.waiter != Thread.currentThread()) {
+                    LockSupport.unpark(b.waiter);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the average number of increments per transaction
+     */
+    public double combiningRatio() {
+        long b = batches.sum();
+        return b > 0 ? (double) requests.sum() / b : 0;
+    }
+
+
+    /**
+     * Returns the average time an increment waited for its batch (ms)
+     */
+    public double addedLatency() {
+        long r = requests.sum();
+        return r > 0 ? addedLatency.sum() / 1e6 / r : 0;
+    }
+}
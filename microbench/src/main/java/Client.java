@@ -1,10 +1,9 @@
 import transactions.Transactions;
 
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
@@ -22,52 +21,101 @@ public class Client implements Runnable {
     private int id;
     private String opDistribution;
     private int unevenScale;
-    private String accessDistribution;
+    private ProductSampler sampler;
+    private int[] ids;
+    private int[] singleId;
+    // integer keys instead of "p" + id strings
+    private boolean intKeys;
     private Random rand;
-    //private List<Integer> powerLawPids;
-    private NavigableMap<Long, Integer> powerLawIds;
-    private long powerLawTotal;
     public List<TxResult> results;
+    public LatencyRecorder recorder;
+    public TraceRecorder trace;
+    private String recorderType;
     private double hybridReadRatio;
     private String hybridReadRatioUnit;
+    // reads check if the stock reaches a random amount (hasAtLeast) instead of reading it (getStock)
+    private boolean thresholdReads;
     private int totalClients;
+    // open arrival schedule (interval == 0 for the closed loop)
+    private long interval;
+    private long nextStart;
+    private long intendedStart;
+    private boolean hasIntendedStart;
+    public long scheduled;
+    public long missed;
+    // shared connection pool (null if the client has its own connections)
+    private ConnectionPool pool;
+    public long poolWait;
+    public long poolAcquires;
+    // own connections, by server (only the client's server is connected with roundRobin)
+    private Transactions[] connections;
+    private LoadBalancer balancer;
+    // merges concurrent increments of the same products (or null)
+    private AddCombiner combiner;
+    // stock cache shared by the clients (or null)
+    private StockCache cache;
+    // products known to be out of stock, so doomed subs fail fast (or null)
+    private NoStockCache noStock;
+    // server of the current transaction
+    private int server;
+    // commits/aborts per server and second (the warmup is discarded when printing, as in the main results)
+    public long[][] serverCommits;
+    public long[][] serverAborts;
+    private long beginTime;
+    // live report counters (single writer, read by the reporter)
+    public AtomicLong liveCommits;
+    public AtomicLong liveAborts;
+    private LiveReporter reporter;
 
 
-    public Client(String connectionString, String dbms, String mode, String opDistribution, int unevenScale,
-                  String accessDistribution, AtomicBoolean over, Transactions transactions, int pIdLimit, int amountLimit,
+    public Client(List<String> connectionStrings, String dbms, String mode, String opDistribution, int unevenScale,
+                  ProductSampler sampler, String keyType, AtomicBoolean over, Transactions transactions, int pIdLimit, int amountLimit,
                   int productsAccessed, int isolation, boolean noCollision, double hybridReadRatio, String hybridReadRatioUnit,
-                  int totalClients, int id) {
+                  String readOperation, String recorderType, String arrival, double arrivalRate, ConnectionPool pool, LoadBalancer balancer,
+                  AddCombiner combiner, StockCache cache, NoStockCache noStock, int totalClients, int id) {
         try {
             this.over = over;
-            // so transactions objects are not shared
-            this.transactions = transactions.getClass().getDeclaredConstructor().newInstance();
-            this.transactions.setConnection(connectionString, dbms, isolation);
-            this.transactions.setId(id);
+            this.pool = pool;
+            this.balancer = balancer;
+            this.combiner = combiner;
+            this.cache = cache;
+            this.noStock = noStock;
+            if (pool == null) {
+                // so transactions objects are not shared
+                this.connections = new Transactions[balancer.servers()];
+                for (int s = 0; s < connections.length; s++) {
+                    if (balancer.usesAllServers() || s == id % connections.length) {
+                        connections[s] = transactions.getClass().getDeclaredConstructor().newInstance();
+                        connections[s].setConnection(connectionStrings.get(s), dbms, isolation);
+                        connections[s].setId(id);
+                    }
+                }
+            }
+            this.serverCommits = new long[balancer.servers()][0];
+            this.serverAborts = new long[balancer.servers()][0];
             this.mode = mode;
             this.opDistribution = opDistribution;
             this.unevenScale = unevenScale;
-            this.accessDistribution = accessDistribution;
+            this.sampler = sampler;
+            this.ids = new int[Math.min(productsAccessed, pIdLimit)];
+            this.singleId = new int[1];
+            this.intKeys = keyType.equals("int");
             this.pIdLimit = pIdLimit;
             this.amountLimit = amountLimit;
             this.productsAccessed = productsAccessed;
             this.noCollision = noCollision;
             this.hybridReadRatio = hybridReadRatio;
             this.hybridReadRatioUnit = hybridReadRatioUnit;
+            this.thresholdReads = readOperation.equals("hasAtLeast");
+            this.recorderType = recorderType;
+            // the target rate is split evenly across clients
+            this.interval = arrival.equals("open") ? (long) (1e9 * totalClients / arrivalRate) : 0;
             this.totalClients = totalClients;
             this.id = id;
             this.results = new ArrayList<>();
             this.rand = new Random();
-
-            if (accessDistribution.equals("powerlaw")) {
-                this.powerLawIds = new TreeMap<>();
-                double smallestPowerLaw = Math.pow(pIdLimit, -1);
-                IntStream.range(0, pIdLimit).forEach(x -> {
-                    double powerLawValue = Math.pow(x + 1, -1);
-                    int nCopies = (int) (powerLawValue / smallestPowerLaw);
-                    powerLawTotal += nCopies;
-                    powerLawIds.put(powerLawTotal, x);
-                });
-            }
+            this.liveCommits = new AtomicLong();
+            this.liveAborts = new AtomicLong();
         }
         catch (Exception e) {
             e.printStackTrace();
@@ -76,32 +124,194 @@ public class Client implements Runnable {
 
 
     /**
-     * Generates a list of products ids to access based on user preference
-     * @return List of product ids
+     * Prepares the results structure (called right before the client starts)
+     * @param beginTime Time at which the benchmark started (millis)
+     * @param reporter Live reporter (or null)
+     */
+    public void startRecording(long beginTime, LiveReporter reporter) {
+        this.beginTime = beginTime;
+        this.reporter = reporter;
+        if (recorderType.equals("histogram")) {
+            this.recorder = new LatencyRecorder(beginTime, 5000);
+        }
+        else if (recorderType.equals("trace")) {
+            this.trace = new TraceRecorder(totalClients);
+        }
+    }
+
+
+    /**
+     * Records the result of a transaction
+     * @param result Whether the transaction committed
+     * @param duration Response time (nanos)
+     * @param type Transaction type ('a', 's' or 'r')
+     * @param nProducts Number of products accessed
      */
-    private List<String> genProducts() {
-        List<String> products = new ArrayList<>();
+    private void addResult(boolean result, long duration, char type, int nProducts) {
+        long now = System.currentTimeMillis();
+        if (recorder != null) {
+            recorder.record(now, result, duration, type);
+        }
+        else if (trace != null) {
+            trace.record(now, result, duration / 1e6, type, nProducts);
+        }
+        else {
+            results.add(new TxResult(now, result, duration / 1e6, type, nProducts));
+        }
+
+        if (reporter != null) {
+            if (result) {
+                liveCommits.lazySet(liveCommits.get() + 1);
+                reporter.recordLatency(duration);
+            }
+            else {
+                liveAborts.lazySet(liveAborts.get() + 1);
+            }
+        }
+
+        int second = (int) ((now - beginTime) / 1000);
+        if (second >= serverCommits[server].length) {
+            serverCommits[server] = Arrays.copyOf(serverCommits[server], second + 1);
+            serverAborts[server] = Arrays.copyOf(serverAborts[server], second + 1);
+        }
+        if (result) {
+            serverCommits[server][second]++;
+        }
+        else {
+            serverAborts[server][second]++;
+        }
+    }
+
+
+    /**
+     * Generates the products ids to access based on user preference (reuses the same arrays)
+     * @return Product ids
+     */
+    private int[] genProducts() {
         if (noCollision) {
-            products.add("p" + this.id);
+            singleId[0] = this.id;
+            return singleId;
         }
         else {
-            List<Integer> ids;
-            if (accessDistribution.equals("uniform")) {
-                ids = IntStream.range(0, pIdLimit).boxed().collect(Collectors.toList());
-                Collections.shuffle(ids);
-                for (int i = 0; i < Math.min(productsAccessed, pIdLimit); i++) {
-                    // this ensures all products are different
-                    products.add("p" + ids.get(i));
+            sampler.sample(rand, ids);
+            // sorted to prevent deadlocks
+            Arrays.sort(ids);
+            return ids;
+        }
+    }
+
+
+    /**
+     * Increment stock transaction, combined with other clients' increments when the combiner is enabled
+     */
+    private boolean incrementStock(int[] pIds, int amount) {
+        boolean result = combiner != null
+                ? combiner.increment(pIds, amount, total -> executeIncrementStock(pIds, total))
+                : executeIncrementStock(pIds, amount);
+        if (result && noStock != null) {
+            noStock.added(pIds);
+        }
+        return result;
+    }
+
+
+    /**
+     * Increment stock transaction, with integer or "p" + id string keys
+     */
+    private boolean executeIncrementStock(int[] pIds, int amount) {
+        return intKeys ? transactions.incrementStock(pIds, amount)
+                       : transactions.incrementStock(Transactions.stringKeys(pIds), amount);
+    }
+
+
+    /**
+     * Decrement stock transaction, with integer or "p" + id string keys
+     * (fails without accessing the database if a product is known to be out of stock)
+     */
+    private int decrementStock(int[] pIds, int amount) {
+        if (noStock == null) {
+            return executeDecrementStock(pIds, amount);
+        }
+        if (noStock.skip(pIds, amount)) {
+            return -1;
+        }
+        long begin = System.nanoTime();
+        int r = executeDecrementStock(pIds, amount);
+        if (r == -1 && pIds.length == 1) {
+            noStock.mark(pIds[0], amount, begin);
+        }
+        return r;
+    }
+
+
+    private int executeDecrementStock(int[] pIds, int amount) {
+        return intKeys ? transactions.decrementStock(pIds, amount)
+                       : transactions.decrementStock(Transactions.stringKeys(pIds), amount);
+    }
+
+
+    /**
+     * Reads the stock of each product (or checks if it reaches an amount in [1,amountLimit]), with integer or
+     * "p" + id string keys (from the stock cache, if enabled)
+     */
+    private void getStock(int[] pIds) {
+        for (int pId: pIds) {
+            if (cache != null) {
+                // readOperation=getStock (threshold reads are not cached)
+                cache.get(pId, () -> intKeys ? transactions.getStock(pId) : transactions.getStock("p" + pId));
+            }
+            else if (thresholdReads) {
+                int amount = 1 + rand.nextInt(amountLimit);
+                if (intKeys) {
+                    transactions.hasAtLeast(pId, amount);
+                }
+                else {
+                    transactions.hasAtLeast("p" + pId, amount);
                 }
             }
+            else if (intKeys) {
+                transactions.getStock(pId);
+            }
             else {
-                for (int i = 0; i < Math.min(productsAccessed, pIdLimit); i++) {
-                    products.add("p" + powerLawIds.higherEntry(ThreadLocalRandom.current().nextLong(0, powerLawTotal)).getValue());
-                }
+                transactions.getStock("p" + pId);
             }
         }
-        products.sort(String::compareTo);
-        return products;
+    }
+
+
+    /**
+     * Waits until the next scheduled start (open arrival only).
+     * Transactions that start more than one interval late count as missed.
+     */
+    private void awaitSchedule() {
+        if (interval == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        while (now < nextStart && !over.get()) {
+            LockSupport.parkNanos(nextStart - now);
+            now = System.nanoTime();
+        }
+        if (now - nextStart > interval) {
+            missed++;
+        }
+        scheduled++;
+        intendedStart = nextStart;
+        hasIntendedStart = true;
+        nextStart += interval;
+    }
+
+
+    /**
+     * Returns the begin time of a transaction attempt, which is the intended start time for the first attempt
+     * of a scheduled transaction (so latencies include the time spent behind schedule)
+     */
+    private long attemptBegin() {
+        if (hasIntendedStart) {
+            hasIntendedStart = false;
+            return intendedStart;
+        }
+        return System.nanoTime();
     }
 
 
@@ -109,6 +319,8 @@ public class Client implements Runnable {
     public void run() {
         int i = 1;
         int unevenAdd = 0;
+        // stagger the clients' schedules
+        nextStart = System.nanoTime() + (long) (interval * rand.nextDouble());
         while (!over.get()) {
             boolean write = mode.equals("write") || mode.equals("increasedLoad") ||
                     (mode.equals("hybrid") && hybridReadRatioUnit.equals("transactions") && rand.nextDouble() > hybridReadRatio) ||
@@ -116,37 +328,58 @@ public class Client implements Runnable {
             char type;
             boolean result = false;
             long duration = 0;
-            List<String> products = genProducts();
+            int[] products = genProducts();
+            boolean unevenAddTx = write && opDistribution.equals("uneven") && i % (unevenScale + 1) == 0;
+            if (unevenAddTx) {
+                // distribute the adds evenly, so we don't end up with products without stock
+                // (chosen before the server, so the balancer routes on the product actually added)
+                singleId[0] = (this.id + unevenAdd) % this.pIdLimit;
+                products = singleId;
+            }
+            awaitSchedule();
+            server = balancer.acquire(id, products);
+            if (pool != null) {
+                long waitBegin = System.nanoTime();
+                transactions = pool.acquire(server);
+                if (transactions == null) {
+                    // interrupted
+                    balancer.release(server);
+                    break;
+                }
+                poolWait += System.nanoTime() - waitBegin;
+                poolAcquires++;
+            }
+            else {
+                transactions = connections[server];
+            }
 
             if (write) {
                 if (opDistribution.equals("uniform") || opDistribution.equals("adds") || opDistribution.equals("subs")) {
                     int amount = 1 + rand.nextInt(amountLimit);
                     boolean add = opDistribution.equals("adds") || (!opDistribution.equals("subs") && rand.nextBoolean());
                     if (add) {
-                        long begin = System.nanoTime();
-                        result = transactions.incrementStock(products, amount);
+                        long begin = attemptBegin();
+                        result = incrementStock(products, amount);
                         duration = System.nanoTime() - begin;
                         type = 'a';
                     }
                     else {
-                        long begin = System.nanoTime();
-                        result = transactions.decrementStock(products, amount) == 1;
+                        long begin = attemptBegin();
+                        result = decrementStock(products, amount) == 1;
                         duration = System.nanoTime() - begin;
                         type = 's';
                     }
                 }
                 else {
-                    if (i % (unevenScale + 1) == 0) {
+                    if (unevenAddTx) {
                         type = 'a';
                         // adds retried in order to commit
                         while (!result) {
-                            long begin = System.nanoTime();
-                            // distribute the adds evenly, so we don't end up with products without stock
-                            products = List.of("p" + ((this.id + unevenAdd) % this.pIdLimit));
-                            result = transactions.incrementStock(products, unevenScale);
+                            long begin = attemptBegin();
+                            result = incrementStock(products, unevenScale);
                             duration = System.nanoTime() - begin;
                             if (!result) {
-                                results.add(new TxResult(System.currentTimeMillis(), false, duration / 1e6, 'a', products.size()));
+                                addResult(false, duration, 'a', products.length);
                             }
                         }
                         unevenAdd += 1;
@@ -156,11 +389,11 @@ public class Client implements Runnable {
                         type = 's';
                         // subs retried if there is still stock
                         while (!done) {
-                            long begin = System.nanoTime();
-                            int r = transactions.decrementStock(products, 1);
+                            long begin = attemptBegin();
+                            int r = decrementStock(products, 1);
                             duration = System.nanoTime() - begin;
                             if (r == 0) { // aborted due to conflict
-                                results.add(new TxResult(System.currentTimeMillis(), false, duration / 1e6, 's', products.size()));
+                                addResult(false, duration, 's', products.length);
                             }
                             else {
                                 result = r == 1;
@@ -171,18 +404,29 @@ public class Client implements Runnable {
                 }
             }
             else {
-                long begin = System.nanoTime();
-                for (String pId: products) {
-                    transactions.getStock(pId);
-                }
+                long begin = attemptBegin();
+                getStock(products);
                 duration = System.nanoTime() - begin;
                 result = true;
                 type = 'r';
             }
 
-            results.add(new TxResult(System.currentTimeMillis(), result, duration / 1e6, type, products.size()));
+            addResult(result, duration, type, products.length);
+            if (cache != null && type != 'r' && result) {
+                cache.invalidate(products);
+            }
+            if (pool != null) {
+                pool.release(server, transactions);
+            }
+            balancer.release(server);
             i += 1;
         }
-        transactions.closeConnection();
+        if (pool == null) {
+            for (Transactions t: connections) {
+                if (t != null) {
+                    t.closeConnection();
+                }
+            }
+        }
     }
 }
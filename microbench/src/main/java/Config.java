@@ -27,6 +27,7 @@ public class Config {
     public List<Integer> unevenScales;
     public int unevenScale;
     public String accessDistribution;
+    public double powerLawSkew;
     public List<Integer> clients;
     public int cli;
     public List<Integer> sizes;
@@ -35,7 +36,11 @@ public class Config {
     public int initialStock;
     public int time;
     public int timeBucketErr;
+    public String warmup;
+    public int steadyStateWindow;
+    public double steadyStateCv;
     public int cooldown;
+    public int populateThreads;
     public List<Integer> productsAccessed;
     public int pAccessed;
     public List<Integer> amountLimits;
@@ -50,6 +55,27 @@ public class Config {
     public List<Double> hybridReadRatios;
     public double hybridReadRatio;
     public String hybridReadRatioUnit;
+    public String recorder;
+    public boolean liveReport;
+    public boolean addCombining;
+    public String readOperation;
+    public int readCacheMillis;
+    public boolean readCacheInvalidation;
+    public int noStockMillis;
+    public String arrival;
+    public List<Double> arrivalRates;
+    public double arrivalRate;
+    public String executor;
+    public int connectionPoolSize;
+    public String loadBalancing;
+    public String saturationSearch;
+    public double saturationStep;
+    public int saturationMaxSteps;
+    public double saturationMinGain;
+    public double sloAbortRate;
+    public double sloP99;
+    public List<String> keyTypes;
+    public String keyType;
 
     //mrv only
     public int maxNodes;
@@ -78,11 +104,29 @@ public class Config {
     public int adjustWindow;
     public int monitorDelta;
     public PrintWriter outMonitor;
+    public PrintWriter outTrace;
+    public PrintWriter outServers;
+    public PrintWriter outKnee;
+    public PrintWriter outLive;
     public String workers;
     public double arGoal;
     public double arMin;
     public int minAverageAmountPerNode;
     public int distributeAddsSize;
+    public boolean multiProductCalls;
+    public List<String> rkPlacements;
+    public String rkPlacement;
+    public List<Boolean> recordDirectories;
+    public boolean recordDirectory;
+    public String subStrategy;
+    public boolean escrowLeases;
+    public int leaseSize;
+    public int leaseMillis;
+    public int leaseFlushMillis;
+    public int savepointRetries;
+    public boolean incrementalTotals;
+    public int compactionMillis;
+    public int stockPartitions;
 
     // phase reconfiguration only
     public int phaseDeltaMillis;
@@ -144,14 +188,37 @@ public class Config {
             config.loadIncreases = Arrays.asList(1);
         }
 
+        if (!config.arrival.equals("open")) {
+            config.arrivalRates = Arrays.asList(0.0);
+        }
+
+        if (config.saturationSearch.equals("arrivalRate") && !config.arrival.equals("open")) {
+            System.err.println("saturationSearch=arrivalRate requires arrival=open");
+            System.exit(1);
+        }
+
+        // a multi product call updates every product in a single round trip, so it neither uses the record
+        // directory nor savepoints, and the product that causes a conflict (needed by the workers) is unknown
+        if (config.multiProductCalls && (config.recordDirectories.contains(true) || config.savepointRetries > 0
+                || !config.workers.equals("none"))) {
+            System.err.println("multiProductCalls requires recordDirectories=[false], savepointRetries=0 and workers=none");
+            System.exit(1);
+        }
+
+        // the cache stores whole totals, so a cached threshold read would be a getStock
+        if (config.readOperation.equals("hasAtLeast") && config.readCacheMillis > 0) {
+            System.err.println("readOperation=hasAtLeast requires readCacheMillis=0");
+            System.exit(1);
+        }
+
         config.possibleBenchmarkConfigs = listsProduct(0, config.clients, config.sizes, config.initialStocks,
                 config.productsAccessed, config.amountLimits, config.isolations, config.noCollisions, config.types,
-                config.hybridReadRatios, config.unevenScales, config.loadIncreases);
+                config.hybridReadRatios, config.unevenScales, config.loadIncreases, config.arrivalRates, config.keyTypes);
 
         config.possibleMrvConfigs = listsProduct(0, config.initialNodes, config.zeroNodesPercentages,
                 config.balanceAlgorithms, config.balanceDeltas, config.balanceMinmaxKs, config.balanceMinmaxKRatios,
                 config.balanceMinDiffs, config.balanceWindows, config.adjustAlgorithms, config.adjustDeltas,
-                config.adjustWindows);
+                config.adjustWindows, config.rkPlacements, config.recordDirectories);
 
         config.possiblePhaseReconciliationConfigs = listsProduct(0, config.abortRatesToSplit,
                 config.waitingRatiosToJoin, config.noStockRatiosToJoin);
@@ -201,6 +268,8 @@ public class Config {
             hybridReadRatio = (double) currentConfigs.get(8);
             unevenScale = (int) currentConfigs.get(9);
             loadIncrease = (int) currentConfigs.get(10);
+            arrivalRate = (double) currentConfigs.get(11);
+            keyType = (String) currentConfigs.get(12);
             currentBenchmarkConfigIndex++;
             return true;
         }
@@ -228,6 +297,8 @@ public class Config {
             adjustAlgorithm = (String) currentConfigs.get(8);
             adjustDelta = (int) currentConfigs.get(9);
             adjustWindow = (int) currentConfigs.get(10);
+            rkPlacement = (String) currentConfigs.get(11);
+            recordDirectory = (boolean) currentConfigs.get(12);
             currentMrvConfigIndex++;
             return true;
 
@@ -264,6 +335,7 @@ public class Config {
                 ", opDistribution='" + opDistribution + '\'' +
                 ", unevenScale=" + unevenScale +
                 ", accessDistribution='" + accessDistribution + '\'' +
+                ", powerLawSkew=" + powerLawSkew +
                 ", clients=" + cli +
                 ", pIdLimit=" + size +
                 ", initialStock=" + initialStock +
@@ -274,6 +346,18 @@ public class Config {
                 ", type=" + type +
                 ", initialNodes=" + initNodes +
                 ", zeroNodesPercentage=" + zeroNodesPercentage +
+                ", multiProductCalls=" + multiProductCalls +
+                ", rkPlacement=" + rkPlacement +
+                ", recordDirectory=" + recordDirectory +
+                ", subStrategy=" + subStrategy +
+                ", escrowLeases=" + escrowLeases +
+                ", leaseSize=" + leaseSize +
+                ", leaseMillis=" + leaseMillis +
+                ", leaseFlushMillis=" + leaseFlushMillis +
+                ", savepointRetries=" + savepointRetries +
+                ", incrementalTotals=" + incrementalTotals +
+                ", compactionMillis=" + compactionMillis +
+                ", stockPartitions=" + stockPartitions +
                 ", workers=" + workers +
                 ", balanceDelta=" + balanceDelta +
                 ", balanceAlgorithm='" + balanceAlgorithm + '\'' +
@@ -286,6 +370,22 @@ public class Config {
                 ", adjustWindow=" + adjustWindow +
                 ", hybridReadRatio=" + hybridReadRatio +
                 ", hybridReadRatioUnit=" + hybridReadRatioUnit +
+                ", recorder=" + recorder +
+                ", liveReport=" + liveReport +
+                ", addCombining=" + addCombining +
+                ", readOperation=" + readOperation +
+                ", readCacheMillis=" + readCacheMillis +
+                ", readCacheInvalidation=" + readCacheInvalidation +
+                ", noStockMillis=" + noStockMillis +
+                ", arrival=" + arrival +
+                ", arrivalRate=" + arrivalRate +
+                ", executor=" + executor +
+                ", connectionPoolSize=" + connectionPoolSize +
+                ", loadBalancing=" + loadBalancing +
+                ", saturationSearch=" + saturationSearch +
+                ", warmup=" + warmup +
+                ", populateThreads=" + populateThreads +
+                ", keyType=" + keyType +
                 ", abortRateToSplit=" + abortRateToSplit +
                 ", waitingRatioToJoin=" + waitingRatioToJoin +
                 ", noStockRatioToJoin=" + noStockRatioToJoin +
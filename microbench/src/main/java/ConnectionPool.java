@@ -0,0 +1,88 @@
+import transactions.Transactions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * Bounded pool of transactions objects (each with its own database connection) shared by multiple clients
+ * (connections are spread across the servers, with one idle queue per server)
+ */
+public class ConnectionPool {
+
+    private List<BlockingQueue<Transactions>> idle;
+    private List<Transactions> all;
+
+
+    /**
+     * @param size Number of connections
+     * @param connectionStrings Connection strings (connections are spread across all servers)
+     * @param dbms Database engine
+     * @param isolation Isolation level
+     * @param transactions Transactions object to copy
+     */
+    public ConnectionPool(int size, List<String> connectionStrings, String dbms, int isolation, Transactions transactions) {
+        // every server used must have at least one connection
+        int servers = Math.min(connectionStrings.size(), size);
+        this.idle = new ArrayList<>();
+        for (int i = 0; i < servers; i++) {
+            this.idle.add(new ArrayBlockingQueue<>(size));
+        }
+        this.all = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            try {
+                Transactions t = transactions.getClass().getDeclaredConstructor().newInstance();
+                t.setConnection(connectionStrings.get(i % servers), dbms, isolation);
+                t.setId(i);
+                this.all.add(t);
+                this.idle.get(i % servers).add(t);
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of servers with connections in the pool
+     */
+    public int servers() {
+        return idle.size();
+    }
+
+
+    /**
+     * Takes a transactions object connected to some server from the pool, blocking until one is available
+     * @param server Server index
+     * @return Transactions object, or null if the thread was interrupted (interrupt flag kept)
+     */
+    public Transactions acquire(int server) {
+        try {
+            return idle.get(server).take();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+
+    /**
+     * Returns a transactions object to the pool
+     * @param server Server index used to acquire it
+     */
+    public void release(int server, Transactions transactions) {
+        idle.get(server).add(transactions);
+    }
+
+
+    /**
+     * Closes all connections
+     */
+    public void close() {
+        all.forEach(Transactions::closeConnection);
+    }
+}
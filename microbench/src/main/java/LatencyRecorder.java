@@ -0,0 +1,131 @@
+import org.HdrHistogram.Histogram;
+
+import java.util.Arrays;
+
+
+/**
+ * Records the results of a client in constant memory
+ * (commit/abort latency histograms per transaction type, plus commits/aborts per second)
+ */
+public class LatencyRecorder {
+
+    // transaction types, in the same order as the histograms
+    static final char[] TYPES = {'a', 's', 'r'};
+    // significant digits kept by each histogram (1% precision keeps each client small)
+    private static final int PRECISION = 2;
+
+    private long beginTime;
+    private long warmup;
+    Histogram[] commits;
+    Histogram[] aborts;
+    long[] commitsPerSecond;
+    long[] abortsPerSecond;
+
+
+    /**
+     * @param beginTime Time at which the benchmark started (millis)
+     * @param warmup Time after beginTime during which latencies are not recorded (millis)
+     */
+    public LatencyRecorder(long beginTime, long warmup) {
+        this.beginTime = beginTime;
+        this.warmup = warmup;
+        this.commits = new Histogram[TYPES.length];
+        this.aborts = new Histogram[TYPES.length];
+        for (int i = 0; i < TYPES.length; i++) {
+            this.commits[i] = new Histogram(PRECISION);
+            this.aborts[i] = new Histogram(PRECISION);
+        }
+        this.commitsPerSecond = new long[64];
+        this.abortsPerSecond = new long[64];
+    }
+
+
+    /**
+     * Returns the index of some transaction type
+     * @param type Transaction type ('a', 's' or 'r')
+     * @return Index in the histograms arrays
+     */
+    static int typeIndex(char type) {
+        switch (type) {
+            case 'a':
+                return 0;
+            case 's':
+                return 1;
+            default:
+                return 2;
+        }
+    }
+
+
+    /**
+     * Records the result of a transaction
+     * @param timestamp Time at which the transaction ended (millis)
+     * @param result Whether the transaction committed
+     * @param duration Response time (nanos)
+     * @param type Transaction type ('a', 's' or 'r')
+     */
+    public void record(long timestamp, boolean result, long duration, char type) {
+        int second = (int) Math.max((timestamp - beginTime) / 1000, 0);
+        if (second >= commitsPerSecond.length) {
+            int length = Math.max(commitsPerSecond.length * 2, second + 1);
+            commitsPerSecond = Arrays.copyOf(commitsPerSecond, length);
+            abortsPerSecond = Arrays.copyOf(abortsPerSecond, length);
+        }
+
+        if (result) {
+            commitsPerSecond[second]++;
+        }
+        else {
+            abortsPerSecond[second]++;
+        }
+
+        if (timestamp - beginTime >= warmup) {
+            Histogram h = result ? commits[typeIndex(type)] : aborts[typeIndex(type)];
+            h.recordValue(Math.max(duration / 1000, 0));
+        }
+    }
+
+
+    /**
+     * Merges the results of another recorder into this one (both must share the same begin time)
+     * @param other Recorder to merge
+     */
+    public void add(LatencyRecorder other) {
+        for (int i = 0; i < TYPES.length; i++) {
+            commits[i].add(other.commits[i]);
+            aborts[i].add(other.aborts[i]);
+        }
+        if (other.commitsPerSecond.length > commitsPerSecond.length) {
+            commitsPerSecond = Arrays.copyOf(commitsPerSecond, other.commitsPerSecond.length);
+            abortsPerSecond = Arrays.copyOf(abortsPerSecond, other.abortsPerSecond.length);
+        }
+        for (int i = 0; i < other.commitsPerSecond.length; i++) {
+            commitsPerSecond[i] += other.commitsPerSecond[i];
+            abortsPerSecond[i] += other.abortsPerSecond[i];
+        }
+    }
+
+
+    /**
+     * Returns a histogram with all the committed transactions' latencies
+     */
+    public Histogram allCommits() {
+        Histogram h = new Histogram(PRECISION);
+        for (Histogram c: commits) {
+            h.add(c);
+        }
+        return h;
+    }
+
+
+    /**
+     * Returns the total number of aborted transactions (after the warmup)
+     */
+    public long totalAborts() {
+        long total = 0;
+        for (Histogram a: aborts) {
+            total += a.getTotalCount();
+        }
+        return total;
+    }
+}
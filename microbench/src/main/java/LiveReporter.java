@@ -0,0 +1,122 @@
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import transactions.mrv.MrvWorkers;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Reports the throughput, abort rate, p99 and number of nodes (mrv monitor) of the last second while a test runs
+ * (to stdout and as json lines), reading the clients' counters and a shared interval latency recorder
+ */
+public class LiveReporter implements Runnable {
+
+    private String type;
+    private int size;
+    private PrintWriter out;
+    private MrvWorkers workers;
+    private List<Client> clients;
+    private Recorder latencies;
+    private AtomicBoolean over;
+    private Thread thread;
+
+
+    /**
+     * @param type Type of benchmark
+     * @param size Number of products
+     * @param out Json lines output
+     * @param workers Mrv workers (or null), used for the node totals
+     */
+    public LiveReporter(String type, int size, PrintWriter out, MrvWorkers workers) {
+        this.type = type;
+        this.size = size;
+        this.out = out;
+        this.workers = workers;
+        this.clients = new CopyOnWriteArrayList<>();
+        this.latencies = new Recorder(2);
+        this.over = new AtomicBoolean(false);
+    }
+
+
+    /**
+     * Adds clients to the report (e.g. the extra clients in the increasedLoad mode)
+     */
+    public void addClients(List<Client> clients) {
+        this.clients.addAll(clients);
+    }
+
+
+    /**
+     * Records the response time of a committed transaction (safe to call from multiple clients)
+     * @param duration Response time (nanos)
+     */
+    public void recordLatency(long duration) {
+        latencies.recordValue(Math.max(duration / 1000, 0));
+    }
+
+
+    public void start() {
+        thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    public void stop() {
+        over.set(true);
+        try {
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        out.flush();
+    }
+
+
+    @Override
+    public void run() {
+        long begin = System.currentTimeMillis();
+        long previousCommits = 0, previousAborts = 0;
+        long previousTime = begin;
+        Histogram interval = null;
+        while (!over.get()) {
+            try {
+                Thread.sleep(1000);
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+
+            long now = System.currentTimeMillis();
+            long commits = 0, aborts = 0;
+            for (Client c: clients) {
+                commits += c.liveCommits.get();
+                aborts += c.liveAborts.get();
+            }
+            interval = latencies.getIntervalHistogram(interval);
+
+            double txAvg = (commits - previousCommits) * 1000.0 / Math.max(now - previousTime, 1);
+            long total = commits - previousCommits + aborts - previousAborts;
+            double ar = total > 0 ? (double) (aborts - previousAborts) / total : 0;
+            double p99 = interval.getTotalCount() > 0 ? interval.getValueAtPercentile(99) / 1000.0 : 0;
+            double[] monitor = workers != null ? workers.lastMonitorMeasurement : null;
+            long second = (now - begin) / 1000;
+
+            System.out.println(String.format(Locale.ROOT, "%ds tx/s : %.1f, ar : %.4f, p99 : %.3f", second, txAvg, ar, p99) +
+                               (monitor != null ? ", nodes : " + (int) monitor[0] : ""));
+            out.println(String.format(Locale.ROOT,
+                    "{\"type\": \"%s\", \"clients\": %d, \"size\": %d, \"time\": %d, \"tx/s\": %.1f, \"ar\": %.4f, " +
+                    "\"rt_99\": %.3f%s}", type, clients.size(), size, second, txAvg, ar, p99,
+                    monitor != null ? ", \"nodes\": " + (int) monitor[0] : ""));
+
+            previousCommits = commits;
+            previousAborts = aborts;
+            previousTime = now;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * Chooses the server that executes each transaction
+ * roundRobin - each client always uses the same server (client id % servers)
+ * leastConnections - server with the fewest transactions in progress
+ * affinity - based on the (smallest) product id, so the same product tends to be updated in the same server
+ */
+public class LoadBalancer {
+
+    private String policy;
+    private int servers;
+    // transactions in progress per server (leastConnections only)
+    private AtomicIntegerArray active;
+
+
+    /**
+     * @param policy roundRobin, leastConnections or affinity
+     * @param servers Number of servers
+     */
+    public LoadBalancer(String policy, int servers) {
+        this.policy = policy;
+        this.servers = servers;
+        this.active = new AtomicIntegerArray(servers);
+    }
+
+
+    public int servers() {
+        return servers;
+    }
+
+
+    /**
+     * Whether clients may use any server (otherwise each client only needs a connection to its own server)
+     */
+    public boolean usesAllServers() {
+        return !policy.equals("roundRobin");
+    }
+
+
+    /**
+     * Chooses the server of a transaction (must be followed by release)
+     * @param clientId Identifier of the client
+     * @param pIds Products accessed, sorted
+     * @return Server index
+     */
+    public int acquire(int clientId, int[] pIds) {
+        switch (policy) {
+            case "leastConnections":
+                // starts at the client's own server, so ties are spread across servers
+                int server = clientId % servers;
+                int min = active.get(server);
+                for (int i = 1; i < servers && min > 0; i++) {
+                    int s = (clientId + i) % servers;
+                    int a = active.get(s);
+                    if (a < min) {
+                        min = a;
+                        server = s;
+                    }
+                }
+                active.incrementAndGet(server);
+                return server;
+            case "affinity":
+                return pIds[0] % servers;
+            default:
+                return clientId % servers;
+        }
+    }
+
+
+    /**
+     * Marks the transaction in some server as finished
+     * @param server Server index returned by acquire
+     */
+    public void release(int server) {
+        if (policy.equals("leastConnections")) {
+            active.decrementAndGet(server);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
+import org.HdrHistogram.Histogram;
 import org.slf4j.LoggerFactory;
 import transactions.*;
 import transactions.mrv.*;
@@ -34,9 +35,12 @@ public class Main {
         String status = "";
         int timer = 0;
         while (timer < seconds) {
-            System.out.print(status.replaceAll(".", "\b"));
-            status = timer + "/" + seconds;
-            System.out.print(status);
+            // the live reporter prints its own lines
+            if (!config.liveReport) {
+                System.out.print(status.replaceAll(".", "\b"));
+                status = timer + "/" + seconds;
+                System.out.print(status);
+            }
             Thread.sleep(1000);
             timer++;
         }
@@ -92,39 +96,73 @@ public class Main {
                 config.connectionStrings.get(0), config.dbms, config.balanceDelta, config.balanceAlgorithm,
                 config.balanceMinmaxK, config.balanceMinmaxKRatio, config.balanceMinDiff, config.balanceWindow,
                 config.adjustAlgorithm, config.adjustDelta, config.adjustWindow, config.maxNodes, config.minNodes,
-                config.arGoal, config.arMin, config.monitorDelta, config.minAverageAmountPerNode, config.workers);
+                config.arGoal, config.arMin, config.monitorDelta, config.minAverageAmountPerNode, config.workers,
+                config.keyType);
         }
         return workers;
     }
 
 
-    /***
-     * Prints to results to csv and to stdout
-     * @param type Type of benchmark
+    /**
+     * Returns the number of initial seconds discarded from the results
+     * (5 with warmup=fixed; with warmup=steadyState, the time to converge, or 5 if the run did not converge)
+     * @param commitsPerSecond Committed transactions per second
+     * @param summary Results summary, where the time to converge is stored (-1 if not detected)
+     * @return Warmup seconds
+     */
+    static int warmupSeconds(long[] commitsPerSecond, ResultsSummary summary) {
+        summary.timeToConverge = -1;
+        summary.warmup = 5;
+        if (config.warmup.equals("steadyState")) {
+            summary.timeToConverge = SteadyStateDetector.detect(commitsPerSecond, config.time,
+                    config.steadyStateWindow, config.steadyStateCv);
+            if (summary.timeToConverge >= 0) {
+                summary.warmup = summary.timeToConverge;
+            }
+        }
+        return summary.warmup;
+    }
+
+
+    /**
+     * Computes the results summary from the list of all transactions results
      * @param results List of all transactions results
-     * @param workersStatistics Worker-related statistics
-     * @param monitor Number of nodes over time (or null if no monitor worker/not mrv)
+     * @return Results summary
      */
-    static void printResults(String type, List<TxResult> results, Map<String, Double> workersStatistics,
-                             Map<Long, double[]> monitor, int totalPhaseChanges) {
+    static ResultsSummary summarizeResults(List<TxResult> results) {
+        ResultsSummary summary = new ResultsSummary();
 
-        // remove first 5 seconds
+        // remove the warmup seconds
         long minTimestamp = results.stream().map(x -> x.timestamp).min(Long::compareTo).get();
-        List<TxResult> validResults = results.stream().filter(x -> x.timestamp - minTimestamp >= 5000).collect(Collectors.toList());
+        long[] commitsPerSecond = new long[config.time];
+        results.stream().filter(x -> x.result).forEach(x -> {
+            long second = (x.timestamp - minTimestamp) / 1000;
+            if (second < config.time) {
+                commitsPerSecond[(int) second]++;
+            }
+        });
+        int warmup = warmupSeconds(commitsPerSecond, summary);
+        List<TxResult> validResults = results.stream().filter(x -> x.timestamp - minTimestamp >= warmup * 1000L).collect(Collectors.toList());
 
         List<TxResult> committedResults = validResults.stream().filter(x -> x.result).collect(Collectors.toList());
         long nCommits = committedResults.size();
-        double txAvg = (double) nCommits / (config.time - 5);
+        summary.txAvg = (double) nCommits / (config.time - warmup);
         long nCommitsWrite = committedResults.stream().filter(x -> x.type == 'a' || x.type == 's').count();
         long nCommitsRead = committedResults.stream().filter(x -> x.type == 'r').count();
-        double txAvgWrite = (double) nCommitsWrite / (config.time - 5);
-        double txAvgRead = (double) nCommitsRead / (config.time - 5);
+        summary.txAvgWrite = (double) nCommitsWrite / (config.time - warmup);
+        summary.txAvgRead = (double) nCommitsRead / (config.time - warmup);
         double rtAvg = committedResults.stream().mapToDouble(x -> x.rt).average().getAsDouble();
-        double rtErr = Math.sqrt(committedResults.stream().mapToDouble(x -> Math.pow(x.rt - rtAvg, 2)).sum() / (nCommits - 1));
-        double rtP95 = committedResults.stream().map(x -> x.rt).sorted().collect(Collectors.toList()).get((int) (nCommits * 0.95));
-        double ar = 1 - ((double) nCommits / validResults.size());
-        double rtAdd = committedResults.stream().filter(x -> x.type == 'a').mapToDouble(x -> x.rt).average().orElse(0);
-        double rtSub = committedResults.stream().filter(x -> x.type == 's').mapToDouble(x -> x.rt).average().orElse(0);
+        summary.rtAvg = rtAvg;
+        summary.rtErr = Math.sqrt(committedResults.stream().mapToDouble(x -> Math.pow(x.rt - rtAvg, 2)).sum() / (nCommits - 1));
+        List<Double> sortedRts = committedResults.stream().map(x -> x.rt).sorted().collect(Collectors.toList());
+        summary.rtP50 = sortedRts.get((int) (nCommits * 0.5));
+        summary.rtP95 = sortedRts.get((int) (nCommits * 0.95));
+        summary.rtP99 = sortedRts.get((int) (nCommits * 0.99));
+        summary.rtP999 = sortedRts.get((int) (nCommits * 0.999));
+        summary.ar = 1 - ((double) nCommits / validResults.size());
+        summary.rtAdd = committedResults.stream().filter(x -> x.type == 'a').mapToDouble(x -> x.rt).average().orElse(0);
+        summary.rtSub = committedResults.stream().filter(x -> x.type == 's').mapToDouble(x -> x.rt).average().orElse(0);
+        summary.rtRead = committedResults.stream().filter(x -> x.type == 'r').mapToDouble(x -> x.rt).average().orElse(0);
 
         // tx std dev based on config.timeBucketErr second intervals
         long beginTime = committedResults.stream().mapToLong(x -> x.timestamp).min().getAsLong();
@@ -137,24 +175,145 @@ public class Main {
                 txIntervals.put(interval, txIntervals.get(interval) + 1);
             }
         });
-        double txErr = Math.sqrt(txIntervals.values().stream()
-                .mapToDouble(x -> Math.pow((double) x / config.timeBucketErr - txAvg, 2))
+        summary.txErr = Math.sqrt(txIntervals.values().stream()
+                .mapToDouble(x -> Math.pow((double) x / config.timeBucketErr - summary.txAvg, 2))
                 .sum() / (txIntervals.size() - 1));
 
-        System.out.println("tx/s : " + txAvg);
-        System.out.println("ar : " + ar);
-        System.out.println("rt : " + rtAvg);
+        return summary;
+    }
+
+
+    /**
+     * Computes the results summary from the merged latency recorders of all clients
+     * (throughput and abort rate are computed after the warmup seconds, latencies after the recorder's warmup)
+     * @param recorder Merged recorder
+     * @return Results summary
+     */
+    static ResultsSummary summarizeRecorder(LatencyRecorder recorder) {
+        ResultsSummary summary = new ResultsSummary();
+        int warmup = warmupSeconds(recorder.commitsPerSecond, summary);
+
+        Histogram committed = recorder.allCommits();
+        long nCommits = 0;
+        long nAborts = 0;
+        for (int second = warmup; second < recorder.commitsPerSecond.length; second++) {
+            nCommits += recorder.commitsPerSecond[second];
+            nAborts += recorder.abortsPerSecond[second];
+        }
+        long nCommitsRead = recorder.commits[LatencyRecorder.typeIndex('r')].getTotalCount();
+        double readRatio = committed.getTotalCount() > 0 ? (double) nCommitsRead / committed.getTotalCount() : 0;
+        summary.txAvg = (double) nCommits / (config.time - warmup);
+        summary.txAvgWrite = summary.txAvg * (1 - readRatio);
+        summary.txAvgRead = summary.txAvg * readRatio;
+        summary.ar = 1 - ((double) nCommits / (nCommits + nAborts));
+
+        // histograms are recorded in micros
+        summary.rtAvg = committed.getMean() / 1000;
+        summary.rtErr = committed.getStdDeviation() / 1000;
+        summary.rtP50 = committed.getValueAtPercentile(50) / 1000.0;
+        summary.rtP95 = committed.getValueAtPercentile(95) / 1000.0;
+        summary.rtP99 = committed.getValueAtPercentile(99) / 1000.0;
+        summary.rtP999 = committed.getValueAtPercentile(99.9) / 1000.0;
+        Histogram adds = recorder.commits[LatencyRecorder.typeIndex('a')];
+        Histogram subs = recorder.commits[LatencyRecorder.typeIndex('s')];
+        Histogram reads = recorder.commits[LatencyRecorder.typeIndex('r')];
+        summary.rtAdd = adds.getTotalCount() > 0 ? adds.getMean() / 1000 : 0;
+        summary.rtSub = subs.getTotalCount() > 0 ? subs.getMean() / 1000 : 0;
+        summary.rtRead = reads.getTotalCount() > 0 ? reads.getMean() / 1000 : 0;
+
+        // tx std dev based on config.timeBucketErr second intervals (after the warmup seconds)
+        Map<Long, Long> txIntervals = new HashMap<>();
+        for (int second = warmup; second < recorder.commitsPerSecond.length; second++) {
+            long interval = (second - warmup) / config.timeBucketErr;
+            if (recorder.commitsPerSecond[second] > 0 && interval < config.time / config.timeBucketErr) {
+                txIntervals.merge(interval, recorder.commitsPerSecond[second], Long::sum);
+            }
+        }
+        summary.txErr = Math.sqrt(txIntervals.values().stream()
+                .mapToDouble(x -> Math.pow((double) x / config.timeBucketErr - summary.txAvg, 2))
+                .sum() / (txIntervals.size() - 1));
+
+        return summary;
+    }
+
+
+    /**
+     * Computes the results summary from the clients' traces, writing every transaction to the trace csv
+     * (single sequential pass over each trace, plus a counting pass to find the steady state with warmup=steadyState)
+     * @param clients Clients with the recorded traces
+     * @param beginTime Time at which the benchmark started (millis)
+     * @param type Type of benchmark
+     * @return Results summary
+     */
+    static ResultsSummary summarizeTraces(List<Client> clients, long beginTime, String type) {
+        long warmup = 5000;
+        if (config.warmup.equals("steadyState")) {
+            // only counts commits/aborts per second
+            LatencyRecorder counts = new LatencyRecorder(beginTime, Long.MAX_VALUE);
+            clients.forEach(x -> x.trace.replay((timestamp, result, rt, txType, nProducts) ->
+                    counts.record(timestamp, result, 0, txType)));
+            warmup = 1000L * warmupSeconds(counts.commitsPerSecond, new ResultsSummary());
+        }
+        LatencyRecorder recorder = new LatencyRecorder(beginTime, warmup);
+        for (int i = 0; i < clients.size(); i++) {
+            String prefix = type + "," + config.cli + "," + config.size + "," + i + ",";
+            clients.get(i).trace.replay((timestamp, result, rt, txType, nProducts) -> {
+                recorder.record(timestamp, result, (long) (rt * 1e6), txType);
+                config.outTrace.println(prefix + (timestamp - beginTime) + "," + result + "," + rt + "," + txType + "," + nProducts);
+            });
+            clients.get(i).trace.close();
+        }
+        config.outTrace.flush();
+        return summarizeRecorder(recorder);
+    }
+
+
+    /***
+     * Prints to results to csv and to stdout
+     * @param type Type of benchmark
+     * @param summary Summary of the transactions results
+     * @param workersStatistics Worker-related statistics
+     * @param monitor Number of nodes over time (or null if no monitor worker/not mrv)
+     */
+    static void printResults(String type, ResultsSummary summary, Map<String, Double> workersStatistics,
+                             Map<Long, double[]> monitor, int totalPhaseChanges) {
+
+        System.out.println("tx/s : " + summary.txAvg);
+        System.out.println("ar : " + summary.ar);
+        System.out.println("rt : " + summary.rtAvg);
+        if (config.warmup.equals("steadyState")) {
+            System.out.println("time to converge : " + summary.timeToConverge);
+        }
+        if (config.arrival.equals("open")) {
+            System.out.println("missed : " + summary.scheduleMissed);
+        }
+        if (config.connectionPoolSize > 0) {
+            System.out.println("pool wait : " + summary.poolWait);
+        }
         config.out.println(String.format("%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s," +
-                                         "%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s",
+                                         "%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s," +
+                                         "%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s," +
+                                         "%s,%s",
                 type, config.cli, config.size, config.opDistribution, config.unevenScale, config.accessDistribution,
                 config.pAccessed, config.initialStock, config.amountLimit, config.isolation, config.noCollision,
                 config.initNodes, config.workers, config.balanceAlgorithm, config.balanceDelta, config.balanceMinmaxK,
                 config.balanceMinDiff, config.balanceWindow, config.adjustAlgorithm, config.adjustDelta,
-                config.adjustWindow, txAvg, txAvgWrite, txAvgRead, ar, rtAvg, txErr, rtErr, rtP95, rtAdd, rtSub,
+                config.adjustWindow, summary.txAvg, summary.txAvgWrite, summary.txAvgRead, summary.ar, summary.rtAvg,
+                summary.txErr, summary.rtErr, summary.rtP95, summary.rtAdd, summary.rtSub,
                 workersStatistics.getOrDefault("balanceTime", 0.0), workersStatistics.getOrDefault("adjustTime", 0.0),
                 workersStatistics.getOrDefault("variation", 0.0), workersStatistics.getOrDefault("maxAvgVariation", 0.0),
                 workersStatistics.getOrDefault("zeros", 0.0), config.hybridReadRatio, config.abortRateToSplit,
-                config.waitingRatioToJoin, config.noStockRatioToJoin, totalPhaseChanges));
+                config.waitingRatioToJoin, config.noStockRatioToJoin, totalPhaseChanges, config.recorder, summary.rtP50,
+                summary.rtP99, summary.rtP999, config.arrival, config.arrivalRate, summary.scheduleMissed,
+                config.executor, config.connectionPoolSize, summary.poolWait, config.keyType,
+                config.loadBalancing, config.warmup, summary.timeToConverge, config.rkPlacement,
+                config.recordDirectory, config.subStrategy, config.addCombining, summary.combiningRatio,
+                summary.combiningWait, config.escrowLeases, config.savepointRetries,
+                type.equals("mrv") ? TransactionsMrvSQL.partialRetries() : 0, config.incrementalTotals, summary.rtRead,
+                config.readOperation, config.readCacheMillis, summary.cacheHitRate,
+                config.noStockMillis, summary.noStockSkipped, summary.noStockCallsSaved, summary.noStockRecordsSaved,
+                type.equals("mrv") ? TransactionsMrvSQL.recordsPerSub() : 0, config.populateThreads, summary.populateTime,
+                config.stockPartitions));
         config.out.flush();
 
         //monitor results
@@ -168,27 +327,114 @@ public class Main {
     }
 
 
+    /**
+     * Prints the throughput and abort rate of each server to csv and stdout (only with multiple servers)
+     * (servers are identified by their index in the servers list)
+     * @param type Type of benchmark
+     * @param clients Clients with the per server counters
+     * @param servers Number of servers
+     * @param warmup Initial seconds discarded (same as the main results)
+     */
+    static void printServerResults(String type, List<Client> clients, int servers, int warmup) {
+        if (config.outServers == null) {
+            return;
+        }
+        for (int s = 0; s < servers; s++) {
+            int server = s;
+            long commits = clients.stream().mapToLong(x -> sumSeconds(x.serverCommits[server], warmup)).sum();
+            long aborts = clients.stream().mapToLong(x -> sumSeconds(x.serverAborts[server], warmup)).sum();
+            double txAvg = (double) commits / (config.time - warmup);
+            double ar = commits + aborts > 0 ? (double) aborts / (commits + aborts) : 0;
+            System.out.println("server " + s + " tx/s : " + txAvg + ", ar : " + ar);
+            config.outServers.println(String.format("%s,%s,%s,%s,%s,%s,%s",
+                    type, config.cli, config.size, config.loadBalancing, s, txAvg, ar));
+        }
+        config.outServers.flush();
+    }
+
+
+    /**
+     * Creates an unstarted thread to run a client
+     * @param client Client to run
+     * @param executor Platform threads ("threads") or virtual threads ("virtual", requires Java 21+)
+     * @return Thread
+     */
+    static Thread newThread(Runnable client, String executor) {
+        if (executor.equals("virtual")) {
+            // reflection, so the benchmark still builds for older Java versions
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (Thread) Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class)
+                                     .invoke(builder, client);
+            }
+            catch (Exception e) {
+                throw new IllegalStateException("Could not create a virtual thread", e);
+            }
+        }
+        return new Thread(client);
+    }
+
+
+    /**
+     * Returns the executor to use, falling back (with a single warning) to platform threads if virtual threads are
+     * not supported by this JVM
+     */
+    static String supportedExecutor(String executor) {
+        if (executor.equals("virtual")) {
+            try {
+                Thread.class.getMethod("ofVirtual");
+            }
+            catch (NoSuchMethodException e) {
+                System.err.println("Virtual threads not supported by this JVM, using platform threads");
+                return "threads";
+            }
+        }
+        return executor;
+    }
+
+
+    // sum of the per second counts in [warmup, time[
+    private static long sumSeconds(long[] perSecond, int warmup) {
+        long sum = 0;
+        for (int second = warmup; second < Math.min(perSecond.length, config.time); second++) {
+            sum += perSecond[second];
+        }
+        return sum;
+    }
+
+
     public static class ClientsData {
         public List<Client> clients;
         private AtomicBoolean over;
         private List<Thread> threads;
 
-        public ClientsData(int size, Config config, Transactions transactions) {
+        private String executor;
+
+        public ClientsData(int size, Config config, Transactions transactions, ProductSampler sampler,
+                           ConnectionPool pool, LoadBalancer balancer, AddCombiner combiner, StockCache cache,
+                           NoStockCache noStock) {
             this.clients = new ArrayList<>();
             this.over = new AtomicBoolean(false);
+            this.executor = config.executor;
 
             for (int i = 0; i < size; i++) {
-                clients.add(new Client(config.connectionStrings.get(i % config.connectionStrings.size()), config.dbms,
-                    config.mode, config.opDistribution, config.unevenScale, config.accessDistribution,
+                clients.add(new Client(config.connectionStrings, config.dbms,
+                    config.mode, config.opDistribution, config.unevenScale, sampler, config.keyType,
                     this.over, transactions, config.size, config.amountLimit, config.pAccessed,
-                    config.isolation, config.noCollision, config.hybridReadRatio, config.hybridReadRatioUnit, config.cli, i));
+                    config.isolation, config.noCollision, config.hybridReadRatio, config.hybridReadRatioUnit,
+                    config.readOperation, config.recorder, config.arrival, config.arrivalRate, pool, balancer, combiner,
+                    cache, noStock, config.cli, i));
             }
         }
 
-        public void start() {
+        public void start(long beginTime, LiveReporter reporter) {
             this.over.set(false);
+            this.clients.forEach(x -> x.startRecording(beginTime, reporter));
+            if (reporter != null) {
+                reporter.addClients(this.clients);
+            }
             this.threads = new ArrayList<>();
-            this.clients.forEach(x -> threads.add(new Thread(x)));
+            this.clients.forEach(x -> threads.add(newThread(x, executor)));
             this.threads.forEach(Thread::start);
         }
 
@@ -208,24 +454,35 @@ public class Main {
     }
 
 
+    /**
+     * Returns the number of database sessions used by the clients (pool size or one per client)
+     */
+    static int sessions() {
+        return config.connectionPoolSize > 0 ? Math.min(config.connectionPoolSize, config.cli) : config.cli;
+    }
+
+
     /**
      * Runs a test
+     * @return Results summary
      * @throws Exception
      */
-    static void runTest() throws Exception {
+    static ResultsSummary runTest() throws Exception {
         if (config.noCollision) {
             config.size = config.cli;
         }
+        config.executor = supportedExecutor(config.executor);
         System.out.println(config);
 
         // transactions object
         Transactions transactions = buildTransactionsObject(config.type);
         System.out.println(transactions.getType());
         
-        // extra populate configurations (mrv)
-        Map<String, Object> extraConfigs = null;
+        // extra populate configurations
+        Map<String, Object> extraConfigs = new HashMap<>();
+        extraConfigs.put("keyType", config.keyType);
+        extraConfigs.put("populateThreads", config.populateThreads);
         if (config.type.equals("mrv")) {
-            extraConfigs = new HashMap<>();
             if (config.initNodes == 0) {
                 config.initNodes = Math.min(config.cli, config.maxNodes);
             }
@@ -239,15 +496,30 @@ public class Main {
             extraConfigs.put("maxNodes", config.maxNodes);
             extraConfigs.put("distributeAddsSize", config.opDistribution.equals("uneven") ? config.distributeAddsSize : 0);
             extraConfigs.put("zeroNodesPercentage", config.zeroNodesPercentage);
+            extraConfigs.put("multiProductCalls", config.multiProductCalls);
+            extraConfigs.put("rkPlacement", config.rkPlacement);
+            extraConfigs.put("clients", sessions());
+            extraConfigs.put("recordDirectory", config.recordDirectory);
+            extraConfigs.put("subStrategy", config.subStrategy);
+            extraConfigs.put("escrowLeases", config.escrowLeases);
+            extraConfigs.put("leaseSize", config.leaseSize);
+            extraConfigs.put("leaseMillis", config.leaseMillis);
+            extraConfigs.put("leaseFlushMillis", config.leaseFlushMillis);
+            extraConfigs.put("savepointRetries", config.savepointRetries);
+            extraConfigs.put("incrementalTotals", config.incrementalTotals);
+            extraConfigs.put("compactionMillis", config.compactionMillis);
+            extraConfigs.put("stockPartitions", config.stockPartitions);
         }
         else if (config.type.equals("phaseReconciliation")) {
-            extraConfigs = new HashMap<>();
-            extraConfigs.put("cores", config.cli);
+            extraConfigs.put("cores", sessions());
         }
 
         // populate
         System.out.println("populating");
+        long populateBegin = System.currentTimeMillis();
         transactions.populate(config.connectionStrings.get(0), config.dbms, config.size, config.initialStock, extraConfigs);
+        double populateTime = (System.currentTimeMillis() - populateBegin) / 1000.0;
+        System.out.println("populate time : " + populateTime);
 
         // async add tx result log, balance nodes and adjust nodes workers
         MrvWorkers workers = null;
@@ -262,12 +534,27 @@ public class Main {
         if (config.type.equals("phaseReconciliation")) {
             phaseReconciliationCoordinator = new PhaseReconciliationCoordinator(config.connectionStrings.get(0),
                     config.phaseDeltaMillis, config.abortRateToSplit, config.waitingRatioToJoin,
-                    config.noStockRatioToJoin, config.cli);
+                    config.noStockRatioToJoin, sessions());
             addStatusWorker = new AddStatusWorker(config.connectionStrings.get(0));
         }
 
-        // clients
-        ClientsData mainClients = new ClientsData(config.cli, config, transactions);
+        // clients (optionally sharing a bounded connection pool)
+        ConnectionPool pool = null;
+        if (config.connectionPoolSize > 0) {
+            pool = new ConnectionPool(sessions(), config.connectionStrings, config.dbms, config.isolation, transactions);
+        }
+        LoadBalancer balancer = new LoadBalancer(config.loadBalancing,
+                pool != null ? pool.servers() : config.connectionStrings.size());
+        ProductSampler sampler = new ProductSampler(config.size, config.accessDistribution, config.powerLawSkew);
+        AddCombiner combiner = config.addCombining ? new AddCombiner() : null;
+        StockCache cache = null;
+        if (config.readCacheMillis > 0) {
+            cache = new StockCache(config.size, config.readCacheMillis, config.readCacheInvalidation, config.keyType,
+                                   transactions, config.connectionStrings.get(0), config.dbms);
+        }
+        NoStockCache noStock = config.noStockMillis > 0 ? new NoStockCache(config.size, config.noStockMillis) : null;
+        ClientsData mainClients = new ClientsData(config.cli, config, transactions, sampler, pool, balancer, combiner, cache,
+                                                  noStock);
 
         if (workers != null) {
             workers.start();
@@ -276,15 +563,24 @@ public class Main {
             phaseReconciliationCoordinator.start();
             addStatusWorker.start();
         }
-        mainClients.start();
+        LiveReporter reporter = null;
+        if (config.liveReport) {
+            reporter = new LiveReporter(transactions.getType(), config.size, config.outLive, workers);
+        }
+        long beginTime = System.currentTimeMillis();
+        mainClients.start(beginTime, reporter);
+        if (reporter != null) {
+            reporter.start();
+        }
 
         // timer
         timer(config.time);
 
         // increased load mode - add extra clients and remove them after config.time
         if (config.mode.equals("increasedLoad")) {
-            ClientsData extraClients = new ClientsData(config.cli * config.loadIncrease - config.cli, config, transactions);
-            extraClients.start();
+            ClientsData extraClients = new ClientsData(config.cli * config.loadIncrease - config.cli, config, transactions, sampler,
+                                                        pool, balancer, combiner, cache, noStock);
+            extraClients.start(beginTime, reporter);
             timer(config.time);
             extraClients.stop();
             extraClients.joinThreads();
@@ -293,6 +589,9 @@ public class Main {
 
         // stop clients and workers
         mainClients.stop();
+        if (reporter != null) {
+            reporter.stop();
+        }
         if (workers != null) {
             workers.stop();
         }
@@ -303,14 +602,148 @@ public class Main {
         }
         MrvWorkers.clearTxStatus();
         mainClients.joinThreads();
+        // returns the leased stock (escrow mode)
+        StockLeases.stop();
+        TotalsCompactor.stop();
+        if (pool != null) {
+            pool.close();
+        }
 
-        List<TxResult> results = mainClients.clients.stream().flatMap(x -> x.results.stream()).collect(Collectors.toList());
-        printResults(transactions.getType(), results, workers != null ? workers.workersStatistics : new HashMap<>(),
+        ResultsSummary summary;
+        if (config.recorder.equals("histogram")) {
+            LatencyRecorder recorder = new LatencyRecorder(beginTime, 5000);
+            mainClients.clients.forEach(x -> recorder.add(x.recorder));
+            summary = summarizeRecorder(recorder);
+        }
+        else if (config.recorder.equals("trace")) {
+            summary = summarizeTraces(mainClients.clients, beginTime, transactions.getType());
+        }
+        else {
+            List<TxResult> results = mainClients.clients.stream().flatMap(x -> x.results.stream()).collect(Collectors.toList());
+            summary = summarizeResults(results);
+        }
+        long poolAcquires = mainClients.clients.stream().mapToLong(x -> x.poolAcquires).sum();
+        summary.poolWait = poolAcquires > 0 ? mainClients.clients.stream().mapToLong(x -> x.poolWait).sum() / 1e6 / poolAcquires : 0;
+        long scheduled = mainClients.clients.stream().mapToLong(x -> x.scheduled).sum();
+        summary.scheduleMissed = scheduled > 0 ? (double) mainClients.clients.stream().mapToLong(x -> x.missed).sum() / scheduled : 0;
+        if (combiner != null) {
+            summary.combiningRatio = combiner.combiningRatio();
+            summary.combiningWait = combiner.addedLatency();
+        }
+        summary.populateTime = populateTime;
+        if (cache != null) {
+            summary.cacheHitRate = cache.hitRate();
+            cache.close();
+        }
+        if (noStock != null) {
+            summary.noStockSkipped = noStock.skipped();
+            summary.noStockCallsSaved = noStock.callsSaved();
+            // counted with a separate connection, after the clients finish
+            Transactions counter = transactions.getClass().getDeclaredConstructor().newInstance();
+            counter.setConnection(config.connectionStrings.get(0), config.dbms, config.isolation);
+            boolean intKeys = config.keyType.equals("int");
+            summary.noStockRecordsSaved = noStock.recordsSaved(
+                    pId -> intKeys ? counter.records(pId) : counter.records("p" + pId));
+            counter.closeConnection();
+        }
+        printResults(transactions.getType(), summary, workers != null ? workers.workersStatistics : new HashMap<>(),
                      workers != null ? workers.monitorMeasurements : null, totalPhaseChanges);
+        printServerResults(transactions.getType(), mainClients.clients, balancer.servers(), summary.warmup);
 
         // cooldown
         Thread.sleep(config.cooldown * 1000);
         System.out.println();
+        return summary;
+    }
+
+
+    /**
+     * Ramps the number of clients (or the arrival rate) by saturationStep until the throughput stops improving
+     * by at least saturationMinGain %, the abort rate or p99 crosses the SLOs, or saturationMaxSteps is reached.
+     * The knee point (highest throughput within the SLOs) is written to the knee csv.
+     * @throws Exception
+     */
+    static void searchSaturation() throws Exception {
+        boolean clients = config.saturationSearch.equals("clients");
+        int initialClients = config.cli;
+        double initialArrivalRate = config.arrivalRate;
+        // runTest may change these based on the number of clients
+        int size = config.size;
+        int initNodes = config.initNodes;
+
+        ResultsSummary knee = null;
+        int kneeClients = 0;
+        double kneeArrivalRate = 0;
+        String stopReason = "maxSteps";
+        int step;
+        for (step = 0; step < config.saturationMaxSteps; step++) {
+            config.size = size;
+            config.initNodes = initNodes;
+            System.out.println("saturation search step " + step + " (clients : " + config.cli +
+                               ", arrivalRate : " + config.arrivalRate + ")");
+            ResultsSummary summary = runTest();
+
+            if (summary.ar > config.sloAbortRate) {
+                stopReason = "abortRate";
+                break;
+            }
+            if (summary.rtP99 > config.sloP99) {
+                stopReason = "p99";
+                break;
+            }
+            if (knee != null && summary.txAvg < knee.txAvg * (1 + config.saturationMinGain / 100.0)) {
+                stopReason = "throughput";
+                if (summary.txAvg > knee.txAvg) {
+                    knee = summary;
+                    kneeClients = config.cli;
+                    kneeArrivalRate = config.arrivalRate;
+                }
+                break;
+            }
+            knee = summary;
+            kneeClients = config.cli;
+            kneeArrivalRate = config.arrivalRate;
+
+            if (clients) {
+                config.cli = Math.max((int) Math.ceil(config.cli * config.saturationStep), config.cli + 1);
+            }
+            else {
+                config.arrivalRate = config.arrivalRate * config.saturationStep;
+            }
+        }
+
+        if (knee == null) {
+            System.out.println("knee : none (the first step already crossed the " + stopReason + " SLO)");
+            knee = new ResultsSummary();
+        }
+        else {
+            System.out.println("knee : clients " + kneeClients + ", arrivalRate " + kneeArrivalRate + ", tx/s " +
+                               knee.txAvg + " (stopped by " + stopReason + ")");
+        }
+        config.outKnee.println(String.format("%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s",
+                config.type, config.saturationSearch, size, initialClients, initialArrivalRate, kneeClients,
+                kneeArrivalRate, knee.txAvg, knee.ar, knee.rtAvg, knee.rtP99, stopReason,
+                Math.min(step + 1, config.saturationMaxSteps)));
+        config.outKnee.flush();
+
+        config.cli = initialClients;
+        config.arrivalRate = initialArrivalRate;
+        config.size = size;
+        config.initNodes = initNodes;
+    }
+
+
+    /**
+     * Runs a test, or a saturation search starting at the current configuration
+     * @throws Exception
+     */
+    static void runConfig() throws Exception {
+        if (config.saturationSearch.equals("none")) {
+            runTest();
+        }
+        else {
+            searchSaturation();
+        }
     }
 
 
@@ -323,9 +756,31 @@ public class Main {
                 "amountLimit,isolation,noCollision,initialNodes,workers,balanceAlgorithm,balanceDelta,balanceMinmaxK," +
                 "balanceMinDiff,balanceWindow,adjustAlgorithm,adjustDelta,adjustWindow,tx/s,txWrite/s,txRead/s,ar,rt,tx/s_err,rt_err," +
                 "rt_95,rt_add,rt_sub,balance_time,adjust_time,variation,max_avg_variation,zeros,readRatio,abortRateToSplit," +
-                "waitingRatioToJoin,noStockRatioToJoin,totalPhaseChanges");
+                "waitingRatioToJoin,noStockRatioToJoin,totalPhaseChanges,recorder,rt_50,rt_99,rt_999," +
+                "arrival,arrivalRate,scheduleMissed,executor,connectionPoolSize,poolWait,keyType,loadBalancing," +
+                "warmup,timeToConverge,rkPlacement,recordDirectory,subStrategy,addCombining,combiningRatio," +
+                "combiningWait,escrowLeases,savepointRetries,partialRetries,incrementalTotals,rt_read,readOperation," +
+                "readCacheMillis,cacheHitRate,noStockMillis,noStockSkipped,noStockCallsSaved,noStockRecordsSaved," +
+                "recordsPerSub,populateThreads,populateTime,stockPartitions");
         config.outMonitor = new PrintWriter("out-" + config.dbms + "-monitor-" + date + ".csv");
         config.outMonitor.println("clients,size,initialStock,amountLimit,isolation,noCollisions,adjustAlgorithm,loadIncrease,time,nodes,ar");
+        // per server results only when the load is balanced across multiple servers
+        if (config.loadBalancing != null && config.connectionStrings.size() > 1) {
+            config.outServers = new PrintWriter("out-" + config.dbms + "-servers-" + date + ".csv");
+            config.outServers.println("type,clients,size,loadBalancing,server,tx/s,ar");
+        }
+        if (!config.saturationSearch.equals("none")) {
+            config.outKnee = new PrintWriter("out-" + config.dbms + "-knee-" + date + ".csv");
+            config.outKnee.println("type,search,size,initialClients,initialArrivalRate,clients,arrivalRate,tx/s,ar,rt," +
+                                   "rt_99,stopReason,steps");
+        }
+        if (config.liveReport) {
+            config.outLive = new PrintWriter(new BufferedWriter(new FileWriter("out-" + config.dbms + "-live-" + date + ".jsonl")));
+        }
+        if (config.recorder.equals("trace")) {
+            config.outTrace = new PrintWriter(new BufferedWriter(new FileWriter("out-" + config.dbms + "-trace-" + date + ".csv")));
+            config.outTrace.println("type,clients,size,client,time,result,rt,txType,nProducts");
+        }
 
         //disable mongodb logs
         LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
@@ -337,16 +792,16 @@ public class Main {
         while (config.nextBenchmarkConfig()) {
             if (config.type.equals("mrv")) {
                 while (config.nextMrvConfig()) {
-                    runTest();
+                    runConfig();
                 }
             }
             else if (config.type.equals("phaseReconciliation")) {
                 while (config.nextPhaseReconciliationConfig()) {
-                    runTest();
+                    runConfig();
                 }
             }
             else {
-                runTest();
+                runConfig();
             }
         }
     }
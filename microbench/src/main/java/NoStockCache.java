@@ -0,0 +1,136 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntUnaryOperator;
+
+
+/**
+ * Cache of the products known to be (almost) out of stock, shared by the clients: a sub that fails due to no stock
+ * marks its product as having less than the sub's amount, and later subs of at least that amount fail without
+ * accessing the database. Marks are removed by committed adds of this process and expire after refreshMillis,
+ * so adds of other processes are seen by the next sub to reach the database.
+ * Only single product subs are marked, since the product without stock of a multi product sub is unknown.
+ */
+public class NoStockCache {
+
+    private static class Entry {
+        // the product has less than this amount in stock
+        final int below;
+        // nanos
+        final long expires;
+
+        Entry(int below, long expires) {
+            this.below = below;
+            this.expires = expires;
+        }
+    }
+
+    private AtomicReferenceArray<Entry> entries;
+    // time of the last committed add of each product (nanos)
+    private AtomicLongArray addedAt;
+    private long refresh;
+    private LongAdder skipped;
+    private LongAdder callsSaved;
+    // subs skipped due to each product (its records are counted only when the results are summarized, so the
+    // statistic does not add queries to the subs)
+    private AtomicIntegerArray skippedBy;
+
+
+    /**
+     * @param size Number of products
+     * @param refreshMillis Time after which a mark expires
+     */
+    public NoStockCache(int size, int refreshMillis) {
+        this.entries = new AtomicReferenceArray<>(size);
+        this.addedAt = new AtomicLongArray(size);
+        this.refresh = refreshMillis * 1000000L;
+        this.skipped = new LongAdder();
+        this.callsSaved = new LongAdder();
+        this.skippedBy = new AtomicIntegerArray(size);
+    }
+
+
+    /**
+     * Returns whether a sub is known to fail due to no stock (in which case it is counted as skipped)
+     * @param pIds Products of the sub
+     * @param amount Amount of the sub
+     */
+    public boolean skip(int[] pIds, int amount) {
+        long now = System.nanoTime();
+        for (int i = 0; i < pIds.length; i++) {
+            Entry e = entries.get(pIds[i]);
+            if (e != null && now < e.expires && amount >= e.below) {
+                skipped.increment();
+                // the sub would call the procedure of each product up to the one without stock
+                callsSaved.add(i + 1);
+                skippedBy.incrementAndGet(pIds[i]);
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Marks a product as having less than amount in stock, after a sub failed due to no stock
+     * @param pId Product
+     * @param amount Amount of the failed sub
+     * @param begin Time the sub started (nanos); ignored if the product was added to in the meantime
+     */
+    public void mark(int pId, int amount, long begin) {
+        if (begin <= addedAt.get(pId)) {
+            return;
+        }
+        long now = System.nanoTime();
+        Entry e = entries.get(pId);
+        if (e != null && now < e.expires) {
+            amount = Math.min(amount, e.below);
+        }
+        entries.set(pId, new Entry(amount, now + refresh));
+        // an add may have committed while marking
+        if (begin <= addedAt.get(pId)) {
+            entries.set(pId, null);
+        }
+    }
+
+
+    /**
+     * Removes the marks of products after a committed add of this process
+     */
+    public void added(int[] pIds) {
+        long now = System.nanoTime();
+        for (int pId: pIds) {
+            addedAt.set(pId, now);
+            entries.set(pId, null);
+        }
+    }
+
+
+    // subs that failed without accessing the database
+    public long skipped() {
+        return skipped.sum();
+    }
+
+
+    // procedure calls (or product updates) not executed
+    public long callsSaved() {
+        return callsSaved.sum();
+    }
+
+
+    /**
+     * Returns the records not scanned by the skipped subs (called after the clients finish)
+     * @param records Counts the current records of a product
+     */
+    public long recordsSaved(IntUnaryOperator records) {
+        long saved = 0;
+        for (int pId = 0; pId < skippedBy.length(); pId++) {
+            int n = skippedBy.get(pId);
+            if (n > 0) {
+                saved += (long) n * records.applyAsInt(pId);
+            }
+        }
+        return saved;
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.Random;
+
+
+/**
+ * Samples the products accessed by the clients
+ * (built once per test and shared by all clients, as it is immutable after construction)
+ */
+public class ProductSampler {
+
+    private int size;
+    private boolean powerLaw;
+    // alias method tables (powerlaw only)
+    private double[] probability;
+    private int[] alias;
+
+
+    /**
+     * @param size Number of products
+     * @param accessDistribution Uniform or powerlaw
+     * @param skew Power law exponent (product x is accessed with a weight of (x + 1)^-skew)
+     */
+    public ProductSampler(int size, String accessDistribution, double skew) {
+        this.size = size;
+        this.powerLaw = accessDistribution.equals("powerlaw");
+        if (powerLaw) {
+            buildAliasTables(skew);
+        }
+    }
+
+
+    /**
+     * Builds the alias method tables (Vose's algorithm), so each sample is O(1)
+     */
+    private void buildAliasTables(double skew) {
+        probability = new double[size];
+        alias = new int[size];
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            probability[i] = Math.pow(i + 1, -skew);
+            total += probability[i];
+        }
+
+        // work lists with the indexes of the entries below (small) and above (large) the average
+        int[] small = new int[size];
+        int[] large = new int[size];
+        int nSmall = 0, nLarge = 0;
+        for (int i = 0; i < size; i++) {
+            probability[i] = probability[i] * size / total;
+            if (probability[i] < 1) {
+                small[nSmall++] = i;
+            }
+            else {
+                large[nLarge++] = i;
+            }
+        }
+
+        while (nSmall > 0 && nLarge > 0) {
+            int s = small[--nSmall];
+            int l = large[--nLarge];
+            alias[s] = l;
+            probability[l] = probability[l] + probability[s] - 1;
+            if (probability[l] < 1) {
+                small[nSmall++] = l;
+            }
+            else {
+                large[nLarge++] = l;
+            }
+        }
+        // leftovers are (up to rounding errors) exactly the average
+        while (nLarge > 0) {
+            probability[large[--nLarge]] = 1;
+        }
+        while (nSmall > 0) {
+            probability[small[--nSmall]] = 1;
+        }
+    }
+
+
+    /**
+     * Fills ids with random product ids (all different in the uniform distribution), without allocating
+     * @param rand Random generator of the calling client
+     * @param ids Array to fill (ids.length <= size)
+     */
+    public void sample(Random rand, int[] ids) {
+        if (powerLaw) {
+            for (int i = 0; i < ids.length; i++) {
+                int column = rand.nextInt(size);
+                ids[i] = rand.nextDouble() < probability[column] ? column : alias[column];
+            }
+        }
+        else {
+            // Floyd's algorithm: k distinct ids in O(k^2) without a size-sized permutation
+            int k = ids.length;
+            for (int i = 0, j = size - k; i < k; i++, j++) {
+                int t = rand.nextInt(j + 1);
+                ids[i] = contains(ids, i, t) ? j : t;
+            }
+        }
+    }
+
+
+    private static boolean contains(int[] ids, int length, int id) {
+        for (int i = 0; i < length; i++) {
+            if (ids[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
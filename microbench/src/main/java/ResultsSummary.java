@@ -0,0 +1,40 @@
+/**
+ * Stores the aggregated results of a benchmark run (response times in ms)
+ */
+public class ResultsSummary {
+
+    double txAvg;
+    double txAvgWrite;
+    double txAvgRead;
+    double ar;
+    double rtAvg;
+    double txErr;
+    double rtErr;
+    double rtP50;
+    double rtP95;
+    double rtP99;
+    double rtP999;
+    double rtAdd;
+    double rtSub;
+    double rtRead;
+    // ratio of open arrival transactions that started more than one interval behind schedule
+    double scheduleMissed;
+    // average time clients waited for a pooled connection (ms)
+    double poolWait;
+    // seconds until the throughput reached its steady state (-1 if not detected)
+    int timeToConverge;
+    // initial seconds discarded from the results
+    int warmup;
+    // average number of increments per transaction with the add combiner
+    double combiningRatio;
+    // average time increments waited to be combined (ms)
+    double combiningWait;
+    // ratio of reads served by the stock cache
+    double cacheHitRate;
+    // time to populate the database (seconds)
+    double populateTime;
+    // subs that failed without accessing the database, and the procedure calls and records scans they saved
+    long noStockSkipped;
+    long noStockCallsSaved;
+    long noStockRecordsSaved;
+}
@@ -0,0 +1,41 @@
+/**
+ * Detects when a run reaches its steady state, based on the throughput of each second
+ * (the steady state begins at the first sliding window whose coefficient of variation is below a threshold)
+ */
+public class SteadyStateDetector {
+
+    /**
+     * Returns the first second of the earliest stable window
+     * @param perSecond Committed transactions per second (relative to the beginning of the run)
+     * @param time Duration of the run (seconds)
+     * @param window Size of the sliding window (seconds)
+     * @param maxCv Maximum coefficient of variation (std dev / mean) of a stable window
+     * @return First second of the steady state, or -1 if the run never converges
+     */
+    public static int detect(long[] perSecond, int time, int window, double maxCv) {
+        int length = Math.min(perSecond.length, time);
+        if (window <= 0 || window > length) {
+            return -1;
+        }
+
+        // running sums of the current window
+        double sum = 0, sumSquares = 0;
+        for (int i = 0; i < window; i++) {
+            sum += perSecond[i];
+            sumSquares += (double) perSecond[i] * perSecond[i];
+        }
+        for (int begin = 0; ; begin++) {
+            double mean = sum / window;
+            double variance = Math.max(sumSquares / window - mean * mean, 0);
+            if (mean > 0 && Math.sqrt(variance) / mean <= maxCv) {
+                return begin;
+            }
+            int end = begin + window;
+            if (end >= length) {
+                return -1;
+            }
+            sum += perSecond[end] - perSecond[begin];
+            sumSquares += (double) perSecond[end] * perSecond[end] - (double) perSecond[begin] * perSecond[begin];
+        }
+    }
+}
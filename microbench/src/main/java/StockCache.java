@@ -0,0 +1,165 @@
+import transactions.Transactions;
+
+import java.sql.Connection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+
+/**
+ * Cache of the products' stock shared by the read transactions, with entries at most stalenessMillis old
+ * Entries older than half the bound are still served and refreshed asynchronously (one refresh per product at a time);
+ * entries over the bound (or invalidated by this process' committed writes) are loaded by the reader, while the other
+ * readers of the same product wait for that load
+ */
+public class StockCache {
+
+    private static class Value {
+        final int stock;
+        // nanos
+        final long loadedAt;
+
+        Value(int stock, long loadedAt) {
+            this.stock = stock;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static class Entry {
+        volatile Value value;
+        volatile long invalidatedAt;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+    }
+
+    private Entry[] entries;
+    private long staleness;
+    private boolean invalidateOnWrite;
+    private boolean intKeys;
+    // connection used by the asynchronous refreshes
+    private Transactions refresher;
+    private ExecutorService executor;
+    private LongAdder hits;
+    private LongAdder misses;
+
+
+    /**
+     * @param size Number of products
+     * @param stalenessMillis Maximum age of the values returned
+     * @param invalidateOnWrite Whether committed writes of this process invalidate the products' entries
+     * @param keyType varchar or int
+     * @param transactions Transactions object (a new instance is connected for the asynchronous refreshes)
+     * @param connectionString Connection of the refreshes
+     * @param dbms Database
+     */
+    public StockCache(int size, int stalenessMillis, boolean invalidateOnWrite, String keyType,
+                      Transactions transactions, String connectionString, String dbms) throws Exception {
+        this.entries = new Entry[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+        }
+        this.staleness = stalenessMillis * 1000000L;
+        this.invalidateOnWrite = invalidateOnWrite;
+        this.intKeys = keyType.equals("int");
+        this.refresher = transactions.getClass().getDeclaredConstructor().newInstance();
+        // read committed, so the refreshes are not stuck in an old snapshot
+        this.refresher.setConnection(connectionString, dbms, Connection.TRANSACTION_READ_COMMITTED);
+        this.refresher.setId(0);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+
+    /**
+     * Returns the stock of a product, at most stalenessMillis old
+     * @param pId Product id
+     * @param load Reads the stock from the database (with the caller's connection)
+     */
+    public int get(int pId, IntSupplier load) {
+        Entry entry = entries[pId];
+        Value v = entry.value;
+        long now = System.nanoTime();
+        if (fresh(entry, v, now)) {
+            hits.increment();
+            if (now - v.loadedAt >= staleness / 2 && entry.refreshing.compareAndSet(false, true)) {
+                executor.execute(() -> refresh(pId, entry));
+            }
+            return v.stock;
+        }
+
+        synchronized (entry) {
+            v = entry.value;
+            now = System.nanoTime();
+            if (fresh(entry, v, now)) {
+                hits.increment();
+                return v.stock;
+            }
+            misses.increment();
+            int stock = load.getAsInt();
+            set(entry, stock, now);
+            return stock;
+        }
+    }
+
+
+    // values read before the last invalidation are not used
+    private boolean fresh(Entry entry, Value v, long now) {
+        return v != null && now - v.loadedAt < staleness && v.loadedAt > entry.invalidatedAt;
+    }
+
+
+    private void refresh(int pId, Entry entry) {
+        try {
+            long begin = System.nanoTime();
+            int stock = intKeys ? refresher.getStock(pId) : refresher.getStock("p" + pId);
+            synchronized (entry) {
+                set(entry, stock, begin);
+            }
+        }
+        finally {
+            entry.refreshing.set(false);
+        }
+    }
+
+
+    // called with the entry's lock; only keeps newer values
+    private void set(Entry entry, int stock, long loadedAt) {
+        Value v = entry.value;
+        if (v == null || loadedAt > v.loadedAt) {
+            entry.value = new Value(stock, loadedAt);
+        }
+    }
+
+
+    /**
+     * Invalidates the entries of products written (committed) by this process (if invalidateOnWrite)
+     */
+    public void invalidate(int[] pIds) {
+        if (!invalidateOnWrite) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (int pId: pIds) {
+            entries[pId].invalidatedAt = now;
+        }
+    }
+
+
+    public double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total > 0 ? (double) h / total : 0;
+    }
+
+
+    public void close() {
+        executor.shutdown();
+        refresher.closeConnection();
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Records every transaction result of a client in off-heap columnar chunks
+ * (the chunk starts small and grows up to a size shared by all clients, after which full chunks are spilled to a
+ * temporary file, so memory stays bounded regardless of the run length and of the number of clients)
+ */
+public class TraceRecorder {
+
+    // bytes per transaction (timestamp long, rt float, type byte, result byte, nProducts short)
+    private static final int ROW_BYTES = Long.BYTES + Float.BYTES + 2 + Short.BYTES;
+    // initial, minimum and maximum number of transactions per chunk
+    private static final int INITIAL_CHUNK_SIZE = 1 << 10;
+    private static final int MIN_CHUNK_SIZE = 1 << 10;
+    private static final int MAX_CHUNK_SIZE = 1 << 16;
+    // memory of the full chunks of all clients
+    private static final long TOTAL_CHUNK_BYTES = 256L << 20;
+
+    private ByteBuffer chunk;
+    // transactions the current chunk can hold
+    private int capacity;
+    // size of the spilled chunks
+    private int maxCapacity;
+    private int count;
+    private Path spillPath;
+    private FileChannel spill;
+    private long spilledChunks;
+    // reused by every replay of the spilled chunks
+    private ByteBuffer readBuffer;
+
+
+    /**
+     * Receives the transactions of a trace, in order
+     */
+    public interface Consumer {
+        void accept(long timestamp, boolean result, float rt, char type, int nProducts);
+    }
+
+
+    /**
+     * @param clients Number of clients recording at the same time (bounds the size of each chunk)
+     */
+    public TraceRecorder(int clients) {
+        long perClient = TOTAL_CHUNK_BYTES / ROW_BYTES / Math.max(clients, 1);
+        this.maxCapacity = (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, perClient));
+        this.capacity = Math.min(INITIAL_CHUNK_SIZE, maxCapacity);
+        this.chunk = ByteBuffer.allocateDirect(capacity * ROW_BYTES);
+        this.count = 0;
+        this.spilledChunks = 0;
+    }
+
+
+    // column offsets inside a chunk of some capacity
+    private static int timestamps(int capacity) {
+        return 0;
+    }
+
+    private static int rts(int capacity) {
+        return Long.BYTES * capacity;
+    }
+
+    private static int types(int capacity) {
+        return (Long.BYTES + Float.BYTES) * capacity;
+    }
+
+    private static int results(int capacity) {
+        return (Long.BYTES + Float.BYTES + 1) * capacity;
+    }
+
+    private static int nProducts(int capacity) {
+        return (Long.BYTES + Float.BYTES + 2) * capacity;
+    }
+
+
+    /**
+     * Records the result of a transaction
+     * @param timestamp Time at which the transaction ended (millis)
+     * @param result Whether the transaction committed
+     * @param rt Response time (ms)
+     * @param type Transaction type ('a', 's' or 'r')
+     * @param nProducts Number of products accessed
+     */
+    public void record(long timestamp, boolean result, double rt, char type, int nProducts) {
+        if (count == capacity) {
+            if (capacity < maxCapacity) {
+                grow();
+            }
+            else {
+                spillChunk();
+            }
+        }
+        chunk.putLong(timestamps(capacity) + Long.BYTES * count, timestamp);
+        chunk.putFloat(rts(capacity) + Float.BYTES * count, (float) rt);
+        chunk.put(types(capacity) + count, (byte) type);
+        chunk.put(results(capacity) + count, (byte) (result ? 1 : 0));
+        chunk.putShort(nProducts(capacity) + Short.BYTES * count, (short) nProducts);
+        count++;
+    }
+
+
+    /**
+     * Doubles the capacity of the current (full) chunk, moving each column to its new offset
+     */
+    private void grow() {
+        int newCapacity = Math.min(capacity * 2, maxCapacity);
+        ByteBuffer grown = ByteBuffer.allocateDirect(newCapacity * ROW_BYTES);
+        copyColumn(timestamps(capacity), timestamps(newCapacity), Long.BYTES * count, grown);
+        copyColumn(rts(capacity), rts(newCapacity), Float.BYTES * count, grown);
+        copyColumn(types(capacity), types(newCapacity), count, grown);
+        copyColumn(results(capacity), results(newCapacity), count, grown);
+        copyColumn(nProducts(capacity), nProducts(newCapacity), Short.BYTES * count, grown);
+        chunk = grown;
+        capacity = newCapacity;
+    }
+
+
+    private void copyColumn(int from, int to, int length, ByteBuffer target) {
+        ByteBuffer column = chunk.duplicate();
+        column.limit(from + length).position(from);
+        ByteBuffer dest = target.duplicate();
+        dest.position(to);
+        dest.put(column);
+    }
+
+
+    /**
+     * Writes the current (full, maximum capacity) chunk to the spill file and resets it
+     */
+    private void spillChunk() {
+        try {
+            if (spill == null) {
+                spillPath = Files.createTempFile("mrv-trace-", ".bin");
+                spillPath.toFile().deleteOnExit();
+                spill = FileChannel.open(spillPath, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            }
+            chunk.clear();
+            while (chunk.hasRemaining()) {
+                spill.write(chunk);
+            }
+            spilledChunks++;
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        chunk.clear();
+        count = 0;
+    }
+
+
+    /**
+     * Reads every recorded transaction with a single sequential pass
+     * @param consumer Receives each transaction
+     */
+    public void replay(Consumer consumer) {
+        if (spill != null) {
+            if (readBuffer == null) {
+                readBuffer = ByteBuffer.allocateDirect(maxCapacity * ROW_BYTES);
+            }
+            try {
+                spill.position(0);
+                for (long i = 0; i < spilledChunks; i++) {
+                    readBuffer.clear();
+                    while (readBuffer.hasRemaining() && spill.read(readBuffer) >= 0);
+                    replayChunk(readBuffer, maxCapacity, maxCapacity, consumer);
+                }
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        replayChunk(chunk, capacity, count, consumer);
+    }
+
+
+    private static void replayChunk(ByteBuffer buffer, int capacity, int size, Consumer consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(
+                buffer.getLong(timestamps(capacity) + Long.BYTES * i),
+                buffer.get(results(capacity) + i) == 1,
+                buffer.getFloat(rts(capacity) + Float.BYTES * i),
+                (char) buffer.get(types(capacity) + i),
+                buffer.getShort(nProducts(capacity) + Short.BYTES * i));
+        }
+    }
+
+
+    /**
+     * Removes the spill file and releases the read buffer
+     */
+    public void close() {
+        readBuffer = null;
+        if (spill != null) {
+            try {
+                spill.close();
+                Files.deleteIfExists(spillPath);
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            spill = null;
+        }
+    }
+}
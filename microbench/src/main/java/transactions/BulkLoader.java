@@ -0,0 +1,172 @@
+package transactions;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Parallel populate of a table: the products are split in pid ranges, each loaded by its own connection.
+ * PostgreSQL uses COPY, with the primary key dropped during the load and rebuilt afterwards; MySQL/MariaDB use
+ * multi-row inserts (the primary key is kept, as InnoDB tables are clustered by it, and each range is inserted in
+ * key order).
+ */
+public class BulkLoader {
+
+    // products per COPY call
+    private static final int COPY_PRODUCTS = 10000;
+    // rows per insert statement
+    private static final int INSERT_ROWS = 1000;
+
+
+    // receives the rows of a product
+    public interface Sink {
+        void row(Object... values) throws SQLException;
+    }
+
+
+    // generates the rows of a product
+    public interface Rows {
+        void generate(int pId, Random rand, Sink sink) throws SQLException;
+    }
+
+
+    /**
+     * Loads the rows of products [0, pidLimit[ into a table (must be empty)
+     * @param connectionString Connection
+     * @param dbms postgresql, mysql or mariadb
+     * @param table Table
+     * @param columns Columns of the rows, comma separated
+     * @param primaryKey Primary key columns, comma separated
+     * @param pidLimit Number of products
+     * @param threads Number of connections
+     * @param rows Rows of each product
+     */
+    public static void load(String connectionString, String dbms, String table, String columns, String primaryKey,
+                            int pidLimit, int threads, Rows rows) throws Exception {
+        boolean postgresql = dbms.equals("postgresql");
+        if (postgresql) {
+            try (Connection connection = DriverManager.getConnection(connectionString)) {
+                connection.createStatement().execute(
+                        "ALTER TABLE " + table + " DROP CONSTRAINT IF EXISTS " + table.toLowerCase() + "_pkey");
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        int rangeSize = (pidLimit + threads - 1) / threads;
+        for (int begin = 0; begin < pidLimit; begin += rangeSize) {
+            int from = begin;
+            int to = Math.min(begin + rangeSize, pidLimit);
+            futures.add(executor.submit(() -> {
+                if (postgresql) {
+                    copy(connectionString, table, columns, from, to, rows);
+                }
+                else {
+                    insert(connectionString, table, columns, from, to, rows);
+                }
+                return null;
+            }));
+        }
+        executor.shutdown();
+        try {
+            for (Future<?> f: futures) {
+                f.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        if (postgresql) {
+            try (Connection connection = DriverManager.getConnection(connectionString)) {
+                connection.createStatement().execute("ALTER TABLE " + table + " ADD PRIMARY KEY (" + primaryKey + ")");
+            }
+        }
+    }
+
+
+    /**
+     * Loads the products [from, to[ with COPY, in a single transaction
+     */
+    private static void copy(String connectionString, String table, String columns, int from, int to, Rows rows)
+            throws Exception {
+        try (Connection connection = DriverManager.getConnection(connectionString)) {
+            connection.setAutoCommit(false);
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+            String copy = "COPY " + table + " (" + columns + ") FROM STDIN";
+            Random rand = new Random();
+            StringBuilder sb = new StringBuilder();
+            Sink sink = values -> {
+                for (int v = 0; v < values.length; v++) {
+                    sb.append(values[v]).append(v < values.length - 1 ? '\t' : '\n');
+                }
+            };
+            for (int i = from; i < to; i++) {
+                rows.generate(i, rand, sink);
+                if ((i - from + 1) % COPY_PRODUCTS == 0 || i == to - 1) {
+                    copyManager.copyIn(copy, new StringReader(sb.toString()));
+                    sb.setLength(0);
+                }
+            }
+            connection.commit();
+        }
+    }
+
+
+    /**
+     * Loads the products [from, to[ with multi-row inserts, in a single transaction
+     */
+    private static void insert(String connectionString, String table, String columns, int from, int to, Rows rows)
+            throws Exception {
+        try (Connection connection = DriverManager.getConnection(connectionString)) {
+            Statement st = connection.createStatement();
+            // the generated keys are unique
+            st.execute("SET unique_checks = 0");
+            connection.setAutoCommit(false);
+            String prefix = "INSERT INTO " + table + " (" + columns + ") VALUES ";
+            Random rand = new Random();
+            StringBuilder sb = new StringBuilder(prefix);
+            int[] pending = new int[1];
+            Sink sink = values -> {
+                if (pending[0] > 0) {
+                    sb.append(',');
+                }
+                sb.append('(');
+                for (int v = 0; v < values.length; v++) {
+                    if (values[v] instanceof String) {
+                        sb.append('\'').append(values[v]).append('\'');
+                    }
+                    else {
+                        sb.append(values[v]);
+                    }
+                    sb.append(v < values.length - 1 ? "," : ")");
+                }
+                if (++pending[0] == INSERT_ROWS) {
+                    st.executeUpdate(sb.toString());
+                    sb.setLength(prefix.length());
+                    pending[0] = 0;
+                }
+            };
+            for (int i = from; i < to; i++) {
+                rows.generate(i, rand, sink);
+            }
+            if (pending[0] > 0) {
+                st.executeUpdate(sb.toString());
+            }
+            connection.commit();
+            st.execute("SET unique_checks = 1");
+        }
+    }
+}
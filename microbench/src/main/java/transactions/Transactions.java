@@ -1,5 +1,6 @@
 package transactions;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -26,6 +27,53 @@ public interface Transactions {
     // Returns the current stock of some product
     int getStock(String pId);
 
+    // Returns whether some product has at least amount in stock (implementations may stop reading once it is reached)
+    default boolean hasAtLeast(String pId, int amount) {
+        return getStock(pId) >= amount;
+    }
+
+    // Returns the number of records that store the stock of some product (all scanned by a sub without enough stock)
+    default int records(String pId) {
+        return 1;
+    }
+
     // Sets the identifier to id
     void setId(int id);
+
+    // Integer key variants, used when keyType = int
+    // (by default the ids are converted to the "p" + id string keys, for engines that only support those)
+
+    // Decrement stock transaction with integer keys
+    default int decrementStock(int[] pIds, int amount) {
+        return decrementStock(stringKeys(pIds), amount);
+    }
+
+    // Increment stock transaction with integer keys
+    default boolean incrementStock(int[] pIds, int amount) {
+        return incrementStock(stringKeys(pIds), amount);
+    }
+
+    // Returns the current stock of some product with an integer key
+    default int getStock(int pId) {
+        return getStock("p" + pId);
+    }
+
+    // Returns whether some product with an integer key has at least amount in stock
+    default boolean hasAtLeast(int pId, int amount) {
+        return hasAtLeast("p" + pId, amount);
+    }
+
+    // Returns the number of records of some product with an integer key
+    default int records(int pId) {
+        return records("p" + pId);
+    }
+
+    // Converts product ids to their string keys
+    static List<String> stringKeys(int[] pIds) {
+        List<String> keys = new ArrayList<>(pIds.length);
+        for (int pId: pIds) {
+            keys.add("p" + pId);
+        }
+        return keys;
+    }
 }
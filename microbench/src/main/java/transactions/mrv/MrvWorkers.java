@@ -19,6 +19,8 @@ public abstract class MrvWorkers {
     private AtomicBoolean over;
     public Map<String, Double> workersStatistics;
     public Map<Long, double[]> monitorMeasurements;
+    // latest monitor measurement (read while the test runs)
+    public volatile double[] lastMonitorMeasurement;
     private static AddStatusWorker addStatusWorker; //singleton
     private List<Thread> threads;
 
@@ -45,6 +47,17 @@ public abstract class MrvWorkers {
     }
 
 
+    /**
+     * Adds the results of a transaction to the tx status table (integer keys)
+     */
+    public static void addTxResult(int pId, boolean committed) {
+        if (addStatusWorker != null) {
+            TxStatus status = new TxStatus(pId, committed, LocalDateTime.now());
+            addStatusWorker.addJob(status);
+        }
+    }
+
+
     /**
      * Clears the remaining tx status jobs (to be used when the run ends)
      */
@@ -79,13 +92,15 @@ public abstract class MrvWorkers {
 
 
     public class BatchedStatus {
-        public String pid;
+        public String pid; // null with integer keys
+        public int id;
         public int commits;
         public int aborts;
         public LocalDateTime lastUpdated;
 
-        public BatchedStatus(String pid, int commits, int aborts, LocalDateTime lastUpdated) {
+        public BatchedStatus(String pid, int id, int commits, int aborts, LocalDateTime lastUpdated) {
             this.pid = pid;
+            this.id = id;
             this.commits = commits;
             this.aborts = aborts;
             this.lastUpdated = lastUpdated;
@@ -116,7 +131,7 @@ public abstract class MrvWorkers {
 
 
         // inserts the status in the database
-        abstract void addStatusDB(Map<String, BatchedStatus> status);
+        abstract void addStatusDB(Collection<BatchedStatus> status);
 
         // close the database connection
         abstract void closeConnection();
@@ -137,18 +152,20 @@ public abstract class MrvWorkers {
                 while (!over.get()) {
                     List<TxStatus> status = new ArrayList<>();
                     queue.drainTo(status);
-                    Map<String, BatchedStatus> batchedStatus = new HashMap<>();
+                    // keyed by the string key or the integer id
+                    Map<Object, BatchedStatus> batchedStatus = new HashMap<>();
                     for (TxStatus s: status) {
-                        batchedStatus.putIfAbsent(s.pId, new BatchedStatus(s.pId, 0, 0, s.time));
+                        BatchedStatus b = batchedStatus.computeIfAbsent(s.pId != null ? s.pId : s.id,
+                                k -> new BatchedStatus(s.pId, s.id, 0, 0, s.time));
                         if (s.committed) {
-                            batchedStatus.get(s.pId).commits += 1;
+                            b.commits += 1;
                         }
                         else {
-                            batchedStatus.get(s.pId).aborts += 1;
+                            b.aborts += 1;
                         }
-                        batchedStatus.get(s.pId).lastUpdated = LocalDateTime.now();
+                        b.lastUpdated = LocalDateTime.now();
                     }
-                    addStatusDB(batchedStatus);
+                    addStatusDB(batchedStatus.values());
                     Thread.sleep(25); // set to 0 if testing small windows
                 }
             }
@@ -485,6 +502,7 @@ public abstract class MrvWorkers {
             while (!over.get()) {
                 double[] r = totalNodesAndAbortRate();
                 monitorMeasurements.put(System.currentTimeMillis() - begin, r);
+                lastMonitorMeasurement = r;
                 try {
                     Thread.sleep(delta);
                 } catch (InterruptedException e) {
@@ -82,8 +82,8 @@ public class MrvWorkersMongo extends MrvWorkers {
 
 
         @Override
-        void addStatusDB(Map<String, BatchedStatus> status) {
-            for (BatchedStatus s: status.values()) {
+        void addStatusDB(Collection<BatchedStatus> status) {
+            for (BatchedStatus s: status) {
                 boolean done = false;
                 try {
                     while (!done) {
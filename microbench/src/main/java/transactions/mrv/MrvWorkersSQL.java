@@ -7,12 +7,16 @@ import java.util.stream.IntStream;
 
 public class MrvWorkersSQL extends MrvWorkers {
 
+    // varchar or int product keys
+    private String keyType;
 
     public MrvWorkersSQL(String connectionString, String dbms, int balanceDelta, String balanceAlgorithm,
                          int balanceMinmaxK, int balanceMinmaxKRatio, int balanceMinDiff, int balanceWindow,
                          String adjustAlgorithm, int adjustDelta, int adjustWindow, int maxNodes, int minNodes,
-                         double arGoal, double arMin, int monitorDelta, int minAverageAmountPerNode, String workers) {
+                         double arGoal, double arMin, int monitorDelta, int minAverageAmountPerNode, String workers,
+                         String keyType) {
         super();
+        this.keyType = keyType;
         try {
             switch (workers) {
                 case "all":
@@ -44,6 +48,19 @@ public class MrvWorkersSQL extends MrvWorkers {
     }
 
 
+    /**
+     * Binds a product key read from the database (as a string) with the pId column type
+     */
+    private void setPid(PreparedStatement ps, int index, String pid) throws SQLException {
+        if (keyType.equals("int")) {
+            ps.setInt(index, Integer.parseInt(pid));
+        }
+        else {
+            ps.setString(index, pid);
+        }
+    }
+
+
     public class AddStatusWorker extends MrvWorkers.AddStatusWorker {
         private Connection connection;
         private PreparedStatement addTxStatus;
@@ -72,12 +89,17 @@ public class MrvWorkersSQL extends MrvWorkers {
 
 
         @Override
-        void addStatusDB(Map<String, BatchedStatus> status) {
+        void addStatusDB(Collection<BatchedStatus> status) {
             int i = 0;
-            int size = status.values().size();
-            for (BatchedStatus s: status.values()) {
+            int size = status.size();
+            for (BatchedStatus s: status) {
                 try {
-                    addTxStatus.setString(1, s.pid);
+                    if (s.pid != null) {
+                        addTxStatus.setString(1, s.pid);
+                    }
+                    else {
+                        addTxStatus.setInt(1, s.id);
+                    }
                     addTxStatus.setInt(2, s.commits);
                     addTxStatus.setInt(3, s.aborts);
                     addTxStatus.addBatch();
@@ -184,7 +206,7 @@ public class MrvWorkersSQL extends MrvWorkers {
                 connection.createStatement().execute("DROP PROCEDURE IF EXISTS minmaxNodes");
                 if (minmaxKRatio > 0) {
                     connection.createStatement().execute(
-                        "CREATE PROCEDURE minmaxNodes(pid_ varchar(255)) " +
+                        "CREATE PROCEDURE minmaxNodes(pid_ " + TransactionsMrvSQL.pidType(keyType) + ") " +
                         "BEGIN  " +
                             "DECLARE limit_ int;" +
                             "SELECT least(greatest(count(*) / " + minmaxKRatio + ", 1), 32) FROM Product_Stock WHERE pid = pid_ INTO limit_; " +
@@ -196,7 +218,7 @@ public class MrvWorkersSQL extends MrvWorkers {
                 }
                 else {
                     connection.createStatement().execute(
-                        "CREATE PROCEDURE minmaxNodes(pid_ varchar(255)) " +
+                        "CREATE PROCEDURE minmaxNodes(pid_ " + TransactionsMrvSQL.pidType(keyType) + ") " +
                             "BEGIN  " +
                             "(SELECT rk, stock FROM Product_Stock WHERE pid = pid_ ORDER BY stock DESC LIMIT " + minmaxK + ") " +
                             "UNION ALL " +
@@ -263,7 +285,7 @@ public class MrvWorkersSQL extends MrvWorkers {
 
         @Override
         Map<Integer, Integer> twoRandomNodes(String pid) throws Exception {
-            countNodes.setString(1, pid);
+            setPid(countNodes, 1, pid);
             ResultSet rs = countNodes.executeQuery();
             rs.next();
             int size = rs.getInt(1);
@@ -272,9 +294,9 @@ public class MrvWorkersSQL extends MrvWorkers {
             if (size >= 2) {
                 List<Integer> l = IntStream.range(0, size).boxed().collect(Collectors.toList());
                 Map<Integer, Integer> results = new HashMap<>();
-                twoRandomNodes.setString(1, pid);
+                setPid(twoRandomNodes, 1, pid);
                 twoRandomNodes.setInt(2, l.remove(random.nextInt(l.size())));
-                twoRandomNodes.setString(3, pid);
+                setPid(twoRandomNodes, 3, pid);
                 twoRandomNodes.setInt(4, l.remove(random.nextInt(l.size())));
                 rs = twoRandomNodes.executeQuery();
 
@@ -300,7 +322,7 @@ public class MrvWorkersSQL extends MrvWorkers {
 
         @Override
         Map<Integer, Integer> maxMinNodes(String pid) throws Exception {
-            maxMinNodes.setString(1, pid);
+            setPid(maxMinNodes, 1, pid);
             ResultSet rs = maxMinNodes.executeQuery();
             Map<Integer, Integer> results = new HashMap<>();
             int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
@@ -324,7 +346,7 @@ public class MrvWorkersSQL extends MrvWorkers {
         @Override
         Map<Integer, Integer> allNodes(String pid) throws Exception {
             Map<Integer, Integer> nodes = new HashMap<>();
-            allNodes.setString(1, pid);
+            setPid(allNodes, 1, pid);
             ResultSet rs = allNodes.executeQuery();
             while (rs.next()) {
                 nodes.put(rs.getInt(1), rs.getInt(2));
@@ -336,7 +358,7 @@ public class MrvWorkersSQL extends MrvWorkers {
         @Override
         void addStock(String pid, int rk, int amount) throws Exception {
             addStock.setInt(1, amount);
-            addStock.setString(2, pid);
+            setPid(addStock, 2, pid);
             addStock.setInt(3, rk);
             addStock.executeUpdate();
         }
@@ -345,7 +367,7 @@ public class MrvWorkersSQL extends MrvWorkers {
         @Override
         void updateNodes(String pid, List<Integer> nodes, int newValue) throws Exception {
             updateStock.setInt(1, newValue);
-            updateStock.setString(2, pid);
+            setPid(updateStock, 2, pid);
             /*
             int i = 3;
             for (int rk: nodes) {
@@ -371,7 +393,7 @@ public class MrvWorkersSQL extends MrvWorkers {
         @Override
         void updateAll(String pid, int newValue) throws Exception {
             updateAll.setInt(1, newValue);
-            updateAll.setString(2, pid);
+            setPid(updateAll, 2, pid);
             updateAll.executeUpdate();
         }
 
@@ -400,6 +422,8 @@ public class MrvWorkersSQL extends MrvWorkers {
         private PreparedStatement clearStats;
         private Random rand;
         private int maxNodes;
+        // products with added/removed records in the current transaction (invalidated in the record directory)
+        private List<String> changedPids;
 
 
         public AdjustNodes(String connectionString, String dbms, String algorithm, int delta, int window, int maxNodes,
@@ -431,6 +455,7 @@ public class MrvWorkersSQL extends MrvWorkers {
             this.clearStats = connection.prepareStatement("DELETE FROM Product_Tx");
             this.rand = new Random();
             this.maxNodes = maxNodes;
+            this.changedPids = new ArrayList<>();
         }
 
 
@@ -447,6 +472,8 @@ public class MrvWorkersSQL extends MrvWorkers {
         @Override
         void commitTransaction() throws Exception {
             connection.commit();
+            changedPids.forEach(RecordDirectory::invalidate);
+            changedPids.clear();
         }
 
 
@@ -454,6 +481,7 @@ public class MrvWorkersSQL extends MrvWorkers {
         void abortTransaction() {
             try {
                 connection.rollback();
+                changedPids.clear();
             } catch (SQLException e) {
                 e.printStackTrace();
             }
@@ -479,7 +507,7 @@ public class MrvWorkersSQL extends MrvWorkers {
 
         @Override
         void addNode(String pid) throws Exception {
-            productNodesRks.setString(1, pid);
+            setPid(productNodesRks, 1, pid);
             ResultSet rs = productNodesRks.executeQuery();
             List<Integer> rks = new ArrayList<>();
 
@@ -491,15 +519,16 @@ public class MrvWorkersSQL extends MrvWorkers {
             availableRks.removeAll(rks);
             int newRk = availableRks.get(rand.nextInt(availableRks.size()));
 
-            addNode.setString(1, pid);
+            setPid(addNode, 1, pid);
             addNode.setInt(2, newRk);
             addNode.executeUpdate();
+            changedPids.add(pid);
         }
 
 
         @Override
         void removeNode(String pid) throws Exception {
-            productNodes.setString(1, pid);
+            setPid(productNodes, 1, pid);
             ResultSet rs = productNodes.executeQuery();
             //using lists instead of map to easily get a random
             List<Integer> rks = new ArrayList<>();
@@ -515,12 +544,13 @@ public class MrvWorkersSQL extends MrvWorkers {
             int amount = stocks.get(r);
             int rkToUpdate = rks.get(rand.nextInt(rks.size()));
 
-            removeNode.setString(1, pid);
+            setPid(removeNode, 1, pid);
             removeNode.setInt(2, rkToRemove);
             removeNode.executeUpdate();
+            changedPids.add(pid);
 
             updateNode.setInt(1, amount);
-            updateNode.setString(2, pid);
+            setPid(updateNode, 2, pid);
             updateNode.setInt(3, rkToUpdate);
             updateNode.executeUpdate();
         }
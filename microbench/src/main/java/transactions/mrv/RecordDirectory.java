@@ -0,0 +1,97 @@
+package transactions.mrv;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Cache of the existing rks of each product, shared by the clients, so mrv operations can update a known record
+ * directly (point lookup) instead of scanning the ring
+ * Entries are invalidated when the adjust worker adds or removes records and reloaded by the next client.
+ * Each invalidation increments the product's generation, and a reload is only stored if the generation did not
+ * change since before the transaction that read it, so a list read before an invalidation is never cached
+ */
+public class RecordDirectory {
+
+    private static class Entry {
+        // null if not loaded
+        final int[] rks;
+        final long generation;
+
+        Entry(int[] rks, long generation) {
+            this.rks = rks;
+            this.generation = generation;
+        }
+    }
+
+    // entry of each product (index = product number), null if never loaded nor invalidated (generation 0)
+    private static volatile AtomicReferenceArray<Entry> rks = new AtomicReferenceArray<>(0);
+
+
+    /**
+     * Removes all entries
+     * @param size Number of products
+     */
+    public static void clear(int size) {
+        rks = new AtomicReferenceArray<>(size);
+    }
+
+
+    /**
+     * Returns the product number of a key ("p" + id or id)
+     */
+    static int index(String pid) {
+        return Integer.parseInt(pid.charAt(0) == 'p' ? pid.substring(1) : pid);
+    }
+
+
+    /**
+     * Returns the cached rks of a product (or null if not loaded)
+     */
+    static int[] get(int product) {
+        AtomicReferenceArray<Entry> rks = RecordDirectory.rks;
+        Entry e = product < rks.length() ? rks.get(product) : null;
+        return e != null ? e.rks : null;
+    }
+
+
+    /**
+     * Returns the current generation of a product (read before the transaction that loads its rks)
+     */
+    static long generation(int product) {
+        AtomicReferenceArray<Entry> rks = RecordDirectory.rks;
+        Entry e = product < rks.length() ? rks.get(product) : null;
+        return e != null ? e.generation : 0;
+    }
+
+
+    /**
+     * Caches the rks of a product, unless it was invalidated after the given generation was read
+     */
+    static void put(int product, long generation, int[] productRks) {
+        AtomicReferenceArray<Entry> rks = RecordDirectory.rks;
+        if (product >= rks.length()) {
+            return;
+        }
+        Entry e = rks.get(product);
+        if ((e != null ? e.generation : 0) == generation) {
+            rks.compareAndSet(product, e, new Entry(productRks, generation));
+        }
+    }
+
+
+    static void invalidate(int product) {
+        AtomicReferenceArray<Entry> rks = RecordDirectory.rks;
+        if (product >= rks.length()) {
+            return;
+        }
+        Entry e;
+        do {
+            e = rks.get(product);
+        } while (!rks.compareAndSet(product, e, new Entry(null, (e != null ? e.generation : 0) + 1)));
+    }
+
+
+    static void invalidate(String pid) {
+        invalidate(index(pid));
+    }
+}
@@ -0,0 +1,495 @@
+package transactions.mrv;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Escrow mode for the mrv subs: stock is leased in chunks from the Product_Stock records into memory (the leased
+ * amount is kept in Product_Lease, so the total stock does not change) and the subs are served from the lease.
+ * A flusher thread writes back the changes of each lease in batches (as deltas, with its own connection), and a sub
+ * only returns after the write back that includes it commits. Leases are taken and closed through a few other
+ * connections, chosen by product, so refills of different products and the write backs do not wait for each other. Leases are returned to the records when they expire, when the product runs
+ * out of stock in the records, or when the test ends. A product that ran out of stock in the records is not leased
+ * again (its subs use the records directly) until the next add of this process or for leaseMillis.
+ */
+public class StockLeases implements Runnable {
+
+    private static StockLeases instance;
+    // connections used to lease, close and return stock (product % REFILL_CONNECTIONS)
+    private static final int REFILL_CONNECTIONS = 4;
+
+    private static class Lease {
+        // remaining stock (-1 after the lease is closed)
+        final AtomicInteger available;
+        final long expires;
+        // amount in Product_Lease, as known by this process (accessed with the lease's lock)
+        int written;
+
+        Lease(int amount, long expires) {
+            this.available = new AtomicInteger(amount);
+            this.expires = expires;
+            this.written = amount;
+        }
+
+        boolean take(int amount) {
+            int a;
+            do {
+                a = available.get();
+                if (a < amount) {
+                    return false;
+                }
+            } while (!available.compareAndSet(a, a - amount));
+            return true;
+        }
+
+        // false if the lease is closed
+        boolean give(int amount) {
+            int a;
+            do {
+                a = available.get();
+                if (a < 0) {
+                    return false;
+                }
+            } while (!available.compareAndSet(a, a + amount));
+            return true;
+        }
+
+        // adds an amount already added to Product_Lease (false if the lease is closed)
+        synchronized boolean refill(int amount) {
+            if (!give(amount)) {
+                return false;
+            }
+            written += amount;
+            return true;
+        }
+
+        // returns the change not written to Product_Lease yet, considering it written (0 if none or closed)
+        synchronized int unwritten() {
+            int a = available.get();
+            if (a < 0) {
+                return 0;
+            }
+            int delta = a - written;
+            written = a;
+            return delta;
+        }
+
+        // undoes unwritten() after the write back rolled back
+        synchronized void notWritten(int delta) {
+            written -= delta;
+        }
+    }
+
+    // connection (and its statements) used to lease, close and return stock
+    private static class Session {
+        final Connection connection;
+        final PreparedStatement leaseStock;
+        final PreparedStatement deleteLease;
+        final PreparedStatement addStock;
+
+        Session(String connectionString) throws SQLException {
+            this.connection = DriverManager.getConnection(connectionString);
+            this.connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            this.connection.setAutoCommit(false);
+            this.leaseStock = connection.prepareStatement("SELECT lease_stock_mrv(?, ?, ?)");
+            this.deleteLease = connection.prepareStatement("DELETE FROM Product_Lease WHERE pid = ? AND owner = ?");
+            this.addStock = connection.prepareStatement("SELECT add_stock_mrv(?, ?, ?)");
+        }
+    }
+
+    private Session[] sessions;
+    // write backs only
+    private Connection flushConnection;
+    private PreparedStatement writeBack;
+    private boolean intKeys;
+    private int owner;
+    private int leaseSize;
+    private int leaseMillis;
+    private int flushMillis;
+    private int maxNodes;
+    private Random rand;
+    private AtomicReferenceArray<Lease> leases;
+    private Set<Integer> leased;
+    private Object[] locks;
+    // time until which a product is known to be out of stock in the records (ms, 0 if not)
+    private AtomicLongArray emptyUntil;
+    // time of the last committed add of each product (nanos)
+    private AtomicLongArray addedAt;
+    private AtomicLong flushesStarted;
+    private long flushesCompleted;
+    private volatile boolean running;
+    private Thread thread;
+
+
+    private StockLeases(String connectionString, String keyType, int size, int leaseSize, int leaseMillis,
+                        int flushMillis, int maxNodes) throws SQLException {
+        this.sessions = new Session[REFILL_CONNECTIONS];
+        for (int i = 0; i < REFILL_CONNECTIONS; i++) {
+            sessions[i] = new Session(connectionString);
+        }
+        this.flushConnection = DriverManager.getConnection(connectionString);
+        this.flushConnection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        this.flushConnection.setAutoCommit(false);
+        // relative, so it commutes with the amounts added by the refills of the other connections
+        this.writeBack = flushConnection.prepareStatement(
+                "UPDATE Product_Lease SET amount = amount + ? WHERE pid = ? AND owner = ?");
+        this.intKeys = keyType.equals("int");
+        this.rand = new Random();
+        this.owner = rand.nextInt(Integer.MAX_VALUE);
+        this.leaseSize = leaseSize;
+        this.leaseMillis = leaseMillis;
+        this.flushMillis = flushMillis;
+        this.maxNodes = maxNodes;
+        this.leases = new AtomicReferenceArray<>(size);
+        this.leased = ConcurrentHashMap.newKeySet();
+        this.locks = new Object[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new Object();
+        }
+        this.emptyUntil = new AtomicLongArray(size);
+        this.addedAt = new AtomicLongArray(size);
+        this.flushesStarted = new AtomicLong();
+        this.running = true;
+    }
+
+
+    /**
+     * Starts the escrow mode (called after the populate)
+     * @param connectionString Connection used to lease, write back and return stock (opened several times)
+     * @param keyType varchar or int
+     * @param size Number of products
+     * @param leaseSize Amount leased from the records at a time
+     * @param leaseMillis Duration of a lease
+     * @param flushMillis Time between write backs
+     * @param maxNodes Maximum number of records (rks used when returning stock)
+     */
+    static void start(String connectionString, String keyType, int size, int leaseSize, int leaseMillis,
+                      int flushMillis, int maxNodes) throws SQLException {
+        stop();
+        instance = new StockLeases(connectionString, keyType, size, leaseSize, leaseMillis, flushMillis, maxNodes);
+        instance.thread = new Thread(instance);
+        instance.thread.setDaemon(true);
+        instance.thread.start();
+    }
+
+
+    static StockLeases instance() {
+        return instance;
+    }
+
+
+    /**
+     * Returns all leases to the records and stops the flusher (called after the clients finish)
+     */
+    public static void stop() {
+        if (instance != null) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+
+    private void setPid(PreparedStatement ps, int index, int product) throws SQLException {
+        if (intKeys) {
+            ps.setInt(index, product);
+        }
+        else {
+            ps.setString(index, "p" + product);
+        }
+    }
+
+
+    /**
+     * Serves a sub from the product's lease, leasing more stock from the records when needed
+     * @return True if served, False if the sub must use the records (not enough stock left in them, or conflict)
+     */
+    boolean take(int product, int amount) {
+        while (true) {
+            Lease lease = leases.get(product);
+            if (lease != null && lease.take(amount)) {
+                return true;
+            }
+            if (System.currentTimeMillis() < emptyUntil.get(product)) {
+                return false;
+            }
+            synchronized (locks[product]) {
+                lease = leases.get(product);
+                if (lease != null && lease.take(amount)) {
+                    return true;
+                }
+                if (!refill(product, Math.max(leaseSize, amount))) {
+                    return false;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Gives back the amount of a sub that was not completed (e.g. another product of the transaction without stock)
+     */
+    void giveBack(int product, int amount) {
+        Lease lease = leases.get(product);
+        if (lease == null || !lease.give(amount)) {
+            // closed in the meantime, so the amount goes directly to the records
+            Session session = session(product);
+            synchronized (session) {
+                try {
+                    returnStock(session, product, amount);
+                    session.connection.commit();
+                }
+                catch (SQLException e) {
+                    e.printStackTrace();
+                    rollback(session.connection);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Clears the out of stock state of the products after a committed add of this process
+     */
+    void added(int product) {
+        addedAt.set(product, System.nanoTime());
+        emptyUntil.set(product, 0);
+    }
+
+
+    /**
+     * Waits until the subs already served are written back (returns early if the thread is interrupted, with the
+     * interrupt flag kept)
+     */
+    void awaitWriteBack() {
+        long target = flushesStarted.get() + 1;
+        synchronized (this) {
+            while (flushesCompleted < target && running) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Leases stock from the record of the product with the most stock (closes the lease if there is none left;
+     * called with the product's lock)
+     * @return True if some stock was leased
+     */
+    private boolean refill(int product, int amount) {
+        long begin = System.nanoTime();
+        Session session = session(product);
+        synchronized (session) {
+            try {
+                session.leaseStock.setInt(1, amount);
+                setPid(session.leaseStock, 2, product);
+                session.leaseStock.setInt(3, owner);
+                ResultSet rs = session.leaseStock.executeQuery();
+                rs.next();
+                int taken = rs.getInt(1);
+                session.connection.commit();
+
+                if (taken == 0) {
+                    // the product ran out of stock in the records, so the leftovers are returned
+                    close(session, product);
+                    session.connection.commit();
+                    emptyUntil.set(product, System.currentTimeMillis() + leaseMillis);
+                    // an add may have committed in the meantime
+                    if (begin <= addedAt.get(product)) {
+                        emptyUntil.set(product, 0);
+                    }
+                    return false;
+                }
+                Lease lease = leases.get(product);
+                if (lease == null || !lease.refill(taken)) {
+                    leases.set(product, new Lease(taken, System.currentTimeMillis() + leaseMillis));
+                    leased.add(product);
+                }
+                return true;
+            }
+            catch (SQLException e) {
+                rollback(session.connection);
+                return false;
+            }
+        }
+    }
+
+
+    private Session session(int product) {
+        return sessions[product % REFILL_CONNECTIONS];
+    }
+
+
+    /**
+     * Closes the lease of a product and returns its leftovers to the records (called with the product's and the
+     * session's locks, committed by the caller)
+     */
+    private void close(Session session, int product) throws SQLException {
+        Lease lease = leases.get(product);
+        if (lease == null) {
+            return;
+        }
+        leases.set(product, null);
+        leased.remove(product);
+        int left = lease.available.getAndSet(-1);
+        setPid(session.deleteLease, 1, product);
+        session.deleteLease.setInt(2, owner);
+        session.deleteLease.executeUpdate();
+        if (left > 0) {
+            returnStock(session, product, left);
+        }
+    }
+
+
+    /**
+     * Closes the lease of a product with its session, in its own transaction
+     */
+    private void close(int product) {
+        Session session = session(product);
+        synchronized (locks[product]) {
+            synchronized (session) {
+                try {
+                    close(session, product);
+                    session.connection.commit();
+                }
+                catch (SQLException e) {
+                    e.printStackTrace();
+                    rollback(session.connection);
+                }
+            }
+        }
+    }
+
+
+    private void returnStock(Session session, int product, int amount) throws SQLException {
+        session.addStock.setInt(1, amount);
+        setPid(session.addStock, 2, product);
+        session.addStock.setInt(3, rand.nextInt(maxNodes));
+        session.addStock.execute();
+    }
+
+
+    private static void rollback(Connection connection) {
+        try {
+            connection.rollback();
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Writes back the changes of the open leases in a single transaction (with the flush connection, so refills are
+     * not blocked), then closes the expired ones (or every lease)
+     * @param closeAll Whether to close every lease
+     */
+    private void flush(boolean closeAll) {
+        long n = flushesStarted.incrementAndGet();
+        boolean committed = false;
+        long now = System.currentTimeMillis();
+        List<Integer> expired = new ArrayList<>();
+        List<Lease> batchedLeases = new ArrayList<>();
+        List<Integer> batchedDeltas = new ArrayList<>();
+        try {
+            for (int product: leased) {
+                Lease lease = leases.get(product);
+                if (lease == null) {
+                    continue;
+                }
+                if (closeAll || now >= lease.expires) {
+                    expired.add(product);
+                }
+                int delta = lease.unwritten();
+                if (delta != 0) {
+                    writeBack.setInt(1, delta);
+                    setPid(writeBack, 2, product);
+                    writeBack.setInt(3, owner);
+                    writeBack.addBatch();
+                    batchedLeases.add(lease);
+                    batchedDeltas.add(delta);
+                }
+            }
+            if (!batchedLeases.isEmpty()) {
+                writeBack.executeBatch();
+            }
+            flushConnection.commit();
+            committed = true;
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+            rollback(flushConnection);
+            try {
+                writeBack.clearBatch();
+            }
+            catch (SQLException ex) {
+                ex.printStackTrace();
+            }
+            // written again by the next write back
+            for (int i = 0; i < batchedLeases.size(); i++) {
+                batchedLeases.get(i).notWritten(batchedDeltas.get(i));
+            }
+        }
+        if (committed) {
+            synchronized (this) {
+                flushesCompleted = n;
+                notifyAll();
+            }
+        }
+        for (int product: expired) {
+            close(product);
+        }
+    }
+
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(flushMillis);
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            flush(false);
+        }
+    }
+
+
+    private void shutdown() {
+        running = false;
+        try {
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        flush(true);
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            flushConnection.close();
+            for (Session session: sessions) {
+                session.connection.close();
+            }
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
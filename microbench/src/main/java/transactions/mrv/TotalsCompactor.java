@@ -0,0 +1,158 @@
+package transactions.mrv;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Incremental totals: triggers append the changes of Product_Stock (and Product_Lease) to Product_Delta, and this
+ * worker periodically folds the deltas into Product_Total, so reads only access one summary row and a few deltas
+ * while writers only append (no contention on the summary row)
+ */
+public class TotalsCompactor implements Runnable {
+
+    private static TotalsCompactor instance;
+
+    private Connection connection;
+    private String dbms;
+    private int intervalMillis;
+    // postgresql
+    private PreparedStatement compact;
+    // mysql/mariadb
+    private PreparedStatement maxId;
+    private PreparedStatement deltas;
+    private PreparedStatement updateTotal;
+    private PreparedStatement deleteDeltas;
+    private volatile boolean running;
+    private Thread thread;
+
+
+    private TotalsCompactor(String connectionString, String dbms, int intervalMillis) throws SQLException {
+        this.connection = DriverManager.getConnection(connectionString);
+        this.connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        this.connection.setAutoCommit(false);
+        this.dbms = dbms;
+        this.intervalMillis = intervalMillis;
+        if (dbms.equals("postgresql")) {
+            // deletes and sums the same snapshot of deltas, so concurrent appends are left for the next round
+            this.compact = connection.prepareStatement(
+                    "WITH d AS (DELETE FROM Product_Delta RETURNING pid, delta) " +
+                    "UPDATE Product_Total AS t " +
+                    "SET total = t.total + s.delta " +
+                    "FROM (SELECT pid, SUM(delta) AS delta FROM d GROUP BY pid) AS s " +
+                    "WHERE t.pid = s.pid");
+        }
+        else {
+            this.maxId = connection.prepareStatement("SELECT MAX(id) FROM Product_Delta");
+            // locking read, so it waits for appends with smaller ids that are not committed yet
+            this.deltas = connection.prepareStatement("SELECT id, pid, delta FROM Product_Delta WHERE id <= ? FOR UPDATE");
+            this.updateTotal = connection.prepareStatement("UPDATE Product_Total SET total = total + ? WHERE pid = ?");
+            // only the deltas that were summed (an id below the max may be appended after the locking read)
+            this.deleteDeltas = connection.prepareStatement("DELETE FROM Product_Delta WHERE id = ?");
+        }
+        this.running = true;
+    }
+
+
+    /**
+     * Starts the compactor (called after the populate)
+     * @param connectionString Connection used to compact the deltas
+     * @param dbms postgresql, mysql or mariadb
+     * @param intervalMillis Time between compactions
+     */
+    static void start(String connectionString, String dbms, int intervalMillis) throws SQLException {
+        stop();
+        instance = new TotalsCompactor(connectionString, dbms, intervalMillis);
+        instance.thread = new Thread(instance);
+        instance.thread.setDaemon(true);
+        instance.thread.start();
+    }
+
+
+    /**
+     * Stops the compactor (called after the clients finish)
+     */
+    public static void stop() {
+        if (instance != null) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+
+    /**
+     * Folds the current deltas into the totals, in a single transaction
+     */
+    private void compact() throws SQLException {
+        if (dbms.equals("postgresql")) {
+            compact.executeUpdate();
+        }
+        else {
+            ResultSet rs = maxId.executeQuery();
+            rs.next();
+            long max = rs.getLong(1);
+            if (rs.wasNull()) {
+                connection.commit();
+                return;
+            }
+            deltas.setLong(1, max);
+            rs = deltas.executeQuery();
+            Map<String, Integer> sums = new HashMap<>();
+            List<Long> ids = new ArrayList<>();
+            while (rs.next()) {
+                ids.add(rs.getLong(1));
+                sums.merge(rs.getString(2), rs.getInt(3), Integer::sum);
+            }
+            for (Map.Entry<String, Integer> e: sums.entrySet()) {
+                updateTotal.setInt(1, e.getValue());
+                updateTotal.setString(2, e.getKey());
+                updateTotal.addBatch();
+            }
+            updateTotal.executeBatch();
+            for (long id: ids) {
+                deleteDeltas.setLong(1, id);
+                deleteDeltas.addBatch();
+            }
+            deleteDeltas.executeBatch();
+        }
+        connection.commit();
+    }
+
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(intervalMillis);
+                compact();
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            catch (SQLException e) {
+                e.printStackTrace();
+                try {
+                    connection.rollback();
+                }
+                catch (SQLException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+    }
+
+
+    private void shutdown() {
+        running = false;
+        try {
+            thread.join();
+            connection.close();
+        }
+        catch (InterruptedException | SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -7,6 +7,7 @@ import com.mongodb.WriteConcern;
 import com.mongodb.client.*;
 import com.mongodb.client.model.*;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import transactions.Transactions;
 
 import java.time.LocalDateTime;
@@ -215,4 +216,33 @@ public class TransactionsMrvMongo implements Transactions {
         session.commitTransaction();
         return stock;
     }
+
+
+    @Override
+    public int records(String pId) {
+        return (int) productsStock.countDocuments(Filters.eq("pid", pId));
+    }
+
+
+    @Override
+    public boolean hasAtLeast(String pId, int amount) {
+        session.startTransaction(transactionOptions);
+        int rk = rand.nextInt(maxNodes);
+        int total = 0;
+        MongoCollection<Document> stock = database.getCollection("product_stock");
+        // ring order starting at a random rk, stopping once the amount is reached
+        for (Bson range: Arrays.asList(Filters.gte("rk", rk), Filters.lt("rk", rk))) {
+            MongoCursor<Document> cursor = stock.find(session, Filters.and(Filters.eq("pid", pId), range))
+                    .projection(Projections.include("stock")).sort(Sorts.ascending("rk")).iterator();
+            while (total < amount && cursor.hasNext()) {
+                total += cursor.next().getInteger("stock");
+            }
+            cursor.close();
+            if (total >= amount) {
+                break;
+            }
+        }
+        session.commitTransaction();
+        return total >= amount;
+    }
 }
@@ -1,11 +1,16 @@
 package transactions.mrv;
 
+import transactions.BulkLoader;
 import transactions.Transactions;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -16,10 +21,42 @@ public class TransactionsMrvSQL implements Transactions {
 
     private Connection connection;
     private static int maxNodes = 128;
+    // whether transactions with multiple products use a single procedure call (with all products)
+    private static boolean multiProductCalls = false;
+    // random - any rk; affinity - rks in the session's slice of each product's records (random if there are none)
+    private static String rkPlacement = "random";
+    // sessions issuing operations (the pool size with a connection pool), ids in [0, clients[
+    private static int clients = 1;
+    // whether the records are updated directly with the rks from the record directory (ring scan on a miss)
+    private static boolean recordDirectory = false;
+    // whether subs are served from local stock leases (see StockLeases)
+    private static boolean escrowLeases = false;
+    // maximum retries of a product's procedure call after a conflict, rolling back only to its savepoint (0 - none)
+    private static int savepointRetries = 0;
+    private static LongAdder partialRetries = new LongAdder();
+    // whether the subs call best_fit_mrv, which returns the number of records updated
+    private static boolean bestFit = false;
+    // records updated by the successful bestFit subs and their number, for the records touched per sub
+    private static LongAdder recordsTouched = new LongAdder();
+    private static LongAdder subCalls = new LongAdder();
+    // whether reads use the incrementally maintained totals (see TotalsCompactor) instead of the Total_Stock view
+    private static boolean incrementalTotals = false;
+    // number of hash partitions (by pid) of Product_Stock and Product_Tx (0 - not partitioned)
+    private static int stockPartitions = 0;
     private Random rand;
+    // record directory generations of the products of the current transaction
+    private long[] generations = new long[0];
     private PreparedStatement decrementStock;
     private PreparedStatement incrementStock;
+    private PreparedStatement decrementStockMulti;
+    private PreparedStatement incrementStockMulti;
+    private PreparedStatement decrementRecord;
+    private PreparedStatement incrementRecord;
+    private PreparedStatement productRks;
+    private PreparedStatement countRecords;
     private PreparedStatement getStock;
+    private PreparedStatement hasAtLeast;
+    private String dbms;
     private int id;
 
 
@@ -35,19 +72,56 @@ public class TransactionsMrvSQL implements Transactions {
 
 
     /**
-     * Creates the schema
+     * Returns the type of the pId columns
+     * @param keyType varchar ("p" + id keys) or int
      */
-    private void createSchema(Connection connection, String dbms) {
+    static String pidType(String keyType) {
+        return keyType.equals("int") ? "int" : "varchar(255)";
+    }
+
+
+    /**
+     * Creates the schema (recreated, as the pId type depends on the key type)
+     */
+    private void createSchema(Connection connection, String dbms, String keyType) {
         try {
+            String pidType = pidType(keyType);
             Statement st = connection.createStatement();
-            st.execute("CREATE TABLE IF NOT EXISTS Product_Orig (pId varchar(255) PRIMARY KEY)");
-            st.execute("CREATE TABLE IF NOT EXISTS Product_Stock (pId varchar(255), rk smallint, stock int, PRIMARY KEY (pId, rk))");
-            st.execute("CREATE OR REPLACE VIEW Total_Stock AS SELECT pid, SUM(stock) as total FROM Product_Stock GROUP BY pid");
+            st.execute("DROP VIEW IF EXISTS Total_Stock");
+            st.execute("DROP TABLE IF EXISTS Product_Orig, Product_Stock, Product_Tx, Product_Lease, Product_Total, Product_Delta");
+            st.execute("CREATE TABLE Product_Orig (pId " + pidType + " PRIMARY KEY)");
+            st.execute("CREATE TABLE Product_Stock (pId " + pidType + ", rk smallint, stock int, PRIMARY KEY (pId, rk))" +
+                       partitionBy(dbms, "pId"));
+            // stock leased by each process in the escrow mode
+            st.execute("CREATE TABLE Product_Lease (pId " + pidType + ", owner int, amount int, PRIMARY KEY (pId, owner))");
+            if (escrowLeases) {
+                st.execute("CREATE OR REPLACE VIEW Total_Stock AS SELECT pid, SUM(stock) as total FROM " +
+                           "(SELECT pid, stock FROM Product_Stock UNION ALL SELECT pid, amount FROM Product_Lease) AS s " +
+                           "GROUP BY pid");
+            }
+            else {
+                st.execute("CREATE OR REPLACE VIEW Total_Stock AS SELECT pid, SUM(stock) as total FROM Product_Stock GROUP BY pid");
+            }
+            // incremental totals (summary and appended changes)
+            st.execute("CREATE TABLE Product_Total (pId " + pidType + " PRIMARY KEY, total int)");
             if (dbms.equals("postgresql")) {
-                st.execute("CREATE TABLE IF NOT EXISTS Product_Tx (pid varchar(255), commits int, aborts int, last_updated timestamp, PRIMARY KEY(pid))");
+                st.execute("CREATE TABLE Product_Tx (pid " + pidType + ", commits int, aborts int, last_updated timestamp, PRIMARY KEY(pid))" +
+                           partitionBy(dbms, "pid"));
+                st.execute("CREATE TABLE Product_Delta (id bigserial PRIMARY KEY, pId " + pidType + ", delta int)");
+                st.execute("CREATE INDEX Product_Delta_pId ON Product_Delta (pId)");
             }
             else {
-                st.execute("CREATE TABLE IF NOT EXISTS Product_Tx (pid varchar(255), commits int, aborts int, last_updated timestamp(3), PRIMARY KEY(pid))");
+                st.execute("CREATE TABLE Product_Tx (pid " + pidType + ", commits int, aborts int, last_updated timestamp(3), PRIMARY KEY(pid))" +
+                           partitionBy(dbms, "pid"));
+                st.execute("CREATE TABLE Product_Delta (id bigint AUTO_INCREMENT PRIMARY KEY, pId " + pidType + ", delta int, INDEX (pId))");
+            }
+            if (stockPartitions > 0 && dbms.equals("postgresql")) {
+                for (String table: Arrays.asList("Product_Stock", "Product_Tx")) {
+                    for (int i = 0; i < stockPartitions; i++) {
+                        st.execute("CREATE TABLE " + table + "_" + i + " PARTITION OF " + table +
+                                   " FOR VALUES WITH (MODULUS " + stockPartitions + ", REMAINDER " + i + ")");
+                    }
+                }
             }
         }
         catch (Exception e) {
@@ -56,15 +130,32 @@ public class TransactionsMrvSQL implements Transactions {
     }
 
 
+    /**
+     * Returns the partitioning clause of a table hash partitioned by pid (empty if stockPartitions = 0)
+     * (mysql/mariadb use KEY partitioning, since HASH only accepts integer expressions)
+     */
+    private static String partitionBy(String dbms, String pidColumn) {
+        if (stockPartitions == 0) {
+            return "";
+        }
+        if (dbms.equals("postgresql")) {
+            // the partitions are created after the table
+            return " PARTITION BY HASH (" + pidColumn + ")";
+        }
+        return " PARTITION BY KEY (" + pidColumn + ") PARTITIONS " + stockPartitions;
+    }
+
+
     /**
      * Creates the procedures
      */
-    private void createProcedures(Connection connection, String dbms, int distributeAddsSize) {
+    private void createProcedures(Connection connection, String dbms, int distributeAddsSize, String keyType) {
         try {
+            String pidType = pidType(keyType);
             Statement st = connection.createStatement();
             if (dbms.equals("postgresql")) {
                 st.executeUpdate(
-                    "CREATE OR REPLACE FUNCTION remove_stock_mrv(amount_ int, pid_ varchar(255), rk_ int) RETURNS bool " +
+                    "CREATE OR REPLACE FUNCTION remove_stock_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS bool " +
                     "AS $$ " +
                     "DECLARE node_rk int; " +
                     "        node_stock int; " +
@@ -102,7 +193,7 @@ public class TransactionsMrvSQL implements Transactions {
 
                 if (distributeAddsSize == 0) {
                     st.executeUpdate(
-                        "CREATE OR REPLACE FUNCTION add_stock_mrv(amount_ int, pid_ varchar(255), rk_ int) RETURNS bool " +
+                        "CREATE OR REPLACE FUNCTION add_stock_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS bool " +
                         "AS $$ " +
                         "DECLARE node_rk int; " +
                         "        done bool = FALSE; " +
@@ -133,7 +224,7 @@ public class TransactionsMrvSQL implements Transactions {
                 else {
                     // rk not used here
                     st.executeUpdate(
-                        "CREATE OR REPLACE FUNCTION add_stock_mrv(amount_ int, pid_ varchar(255), rk_ int) RETURNS bool " +
+                        "CREATE OR REPLACE FUNCTION add_stock_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS bool " +
                         "AS $$ " +
                         "DECLARE delta int; " +
                         "        rks int[]; " +
@@ -166,8 +257,10 @@ public class TransactionsMrvSQL implements Transactions {
                 }
             }
             else if (dbms.equals("mysql") || dbms.equals("mariadb")) {
+                st.executeUpdate("DROP FUNCTION IF EXISTS remove_stock_mrv");
+                st.executeUpdate("DROP FUNCTION IF EXISTS add_stock_mrv");
                 st.executeUpdate(
-                    "CREATE FUNCTION remove_stock_mrv(amount_ int, pid_ varchar(255), rk_ int) RETURNS bool DETERMINISTIC  " +
+                    "CREATE FUNCTION remove_stock_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS bool DETERMINISTIC  " +
                     "BEGIN  " +
                     "    DECLARE done BOOL DEFAULT FALSE; " +
                     "    DECLARE node_rk int; " +
@@ -200,29 +293,551 @@ public class TransactionsMrvSQL implements Transactions {
                     "END;"
                 );
 
+                if (distributeAddsSize == 0) {
+                    st.executeUpdate(
+                        "CREATE FUNCTION add_stock_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS bool DETERMINISTIC  " +
+                        "BEGIN  " +
+                        "    DECLARE node_rk int; " +
+                        "    DECLARE cur CURSOR FOR " +
+                        "        (SELECT rk " +
+                        "        FROM Product_Stock " +
+                        "        WHERE pid = pid_ AND rk >= rk_ " +
+                        "        ORDER BY RK) " +
+                        "        UNION ALL " +
+                        "        (SELECT rk " +
+                        "        FROM Product_Stock " +
+                        "        WHERE pid = pid_ AND rk < rk_ " +
+                        "        ORDER BY RK) " +
+                        "        LIMIT 1; " +
+                        "    OPEN cur; " +
+                        "    FETCH cur INTO node_rk; " +
+                        "    UPDATE Product_Stock  " +
+                        "    SET stock = stock + amount_  " +
+                        "    WHERE pid = pid_  " +
+                        "        AND rk = node_rk; " +
+                        "    CLOSE cur; " +
+                        "    RETURN true;  " +
+                        "END;"
+                    );
+                }
+                else {
+                    // rk not used here; the emptiest records get amount_ / distributeAddsSize each (the first one also
+                    // gets the remainder), in a single update (the derived table is materialized due to the LIMIT)
+                    st.executeUpdate(
+                        "CREATE FUNCTION add_stock_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS bool DETERMINISTIC  " +
+                        "BEGIN  " +
+                        "    DECLARE delta int; " +
+                        "    SET delta = amount_ DIV " + distributeAddsSize + "; " +
+                        "    UPDATE Product_Stock AS ps " +
+                        "    JOIN (SELECT rk, " +
+                        "                 ROW_NUMBER() OVER (ORDER BY stock, rk) AS pos, " +
+                        "                 LEAST(COUNT(*) OVER (), " + distributeAddsSize + ") AS n " +
+                        "          FROM Product_Stock " +
+                        "          WHERE pid = pid_ " +
+                        "          ORDER BY stock, rk " +
+                        "          LIMIT " + distributeAddsSize + ") AS e ON ps.rk = e.rk " +
+                        "    SET ps.stock = ps.stock + delta + IF(e.pos = 1, amount_ - e.n * delta, 0) " +
+                        "    WHERE ps.pid = pid_; " +
+                        "    RETURN true;  " +
+                        "END;"
+                    );
+                }
+            }
+        }
+        catch (SQLException e) {
+            // procedures already exist
+        }
+    }
+
+
+    /**
+     * Replaces remove_stock_mrv with a variant that takes the records in the ring order but skips the ones locked by
+     * other transactions (FOR UPDATE SKIP LOCKED, mysql 8+/mariadb 10.6+), blocking only when all remaining
+     * records with stock are locked
+     */
+    private void createSkipLockedProcedure(Connection connection, String dbms, String keyType) {
+        try {
+            String pidType = pidType(keyType);
+            Statement st = connection.createStatement();
+            if (dbms.equals("postgresql")) {
                 st.executeUpdate(
-                    "CREATE FUNCTION add_stock_mrv(amount_ int, pid_ varchar(255), rk_ int) RETURNS bool DETERMINISTIC  " +
+                    "CREATE OR REPLACE FUNCTION remove_stock_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS bool " +
+                    "AS $$ " +
+                    "DECLARE node_rk int; " +
+                    "        node_stock int; " +
+                    "        skip bool = TRUE; " +
+                    "BEGIN " +
+                    "    WHILE amount_ > 0 LOOP " +
+                    "        IF skip THEN " +
+                    "            SELECT rk, stock INTO node_rk, node_stock " +
+                    "            FROM Product_Stock " +
+                    "            WHERE pid = pid_ AND stock > 0 " +
+                    "            ORDER BY rk < rk_, rk " +
+                    "            LIMIT 1 " +
+                    "            FOR UPDATE SKIP LOCKED; " +
+                    "        ELSE " +
+                    "            SELECT rk, stock INTO node_rk, node_stock " +
+                    "            FROM Product_Stock " +
+                    "            WHERE pid = pid_ AND stock > 0 " +
+                    "            ORDER BY rk < rk_, rk " +
+                    "            LIMIT 1 " +
+                    "            FOR UPDATE; " +
+                    "        END IF; " +
+                    "        IF NOT FOUND THEN " +
+                    "            IF NOT skip THEN " +
+                    "                RETURN FALSE; " +
+                    "            END IF; " +
+                    "            skip = FALSE; " +
+                    "        ELSE " +
+                    "            UPDATE Product_Stock " +
+                    "            SET stock = stock - LEAST(stock, amount_) " +
+                    "            WHERE pid = pid_ AND rk = node_rk; " +
+                    "            amount_ = amount_ - LEAST(node_stock, amount_); " +
+                    "        END IF; " +
+                    "    END LOOP; " +
+                    "    RETURN TRUE; " +
+                    "END " +
+                    "$$ LANGUAGE plpgsql;"
+                );
+            }
+            else if (dbms.equals("mysql") || dbms.equals("mariadb")) {
+                st.executeUpdate("DROP FUNCTION IF EXISTS remove_stock_mrv");
+                st.executeUpdate(
+                    "CREATE FUNCTION remove_stock_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS bool DETERMINISTIC  " +
                     "BEGIN  " +
                     "    DECLARE node_rk int; " +
+                    "    DECLARE node_stock int; " +
+                    "    DECLARE skip BOOL DEFAULT TRUE; " +
+                    "    DECLARE CONTINUE HANDLER FOR NOT FOUND SET node_rk = NULL; " +
+                    "    WHILE amount_ > 0 DO " +
+                    "        SET node_rk = NULL; " +
+                    "        IF skip THEN " +
+                    "            SELECT rk, stock INTO node_rk, node_stock " +
+                    "            FROM Product_Stock " +
+                    "            WHERE pid = pid_ AND stock > 0 " +
+                    "            ORDER BY rk < rk_, rk " +
+                    "            LIMIT 1 " +
+                    "            FOR UPDATE SKIP LOCKED; " +
+                    "        ELSE " +
+                    "            SELECT rk, stock INTO node_rk, node_stock " +
+                    "            FROM Product_Stock " +
+                    "            WHERE pid = pid_ AND stock > 0 " +
+                    "            ORDER BY rk < rk_, rk " +
+                    "            LIMIT 1 " +
+                    "            FOR UPDATE; " +
+                    "        END IF; " +
+                    "        IF node_rk IS NULL THEN " +
+                    "            IF NOT skip THEN " +
+                    "                RETURN FALSE; " +
+                    "            END IF; " +
+                    "            SET skip = FALSE; " +
+                    "        ELSE " +
+                    "            UPDATE Product_Stock " +
+                    "            SET stock = stock - LEAST(stock, amount_) " +
+                    "            WHERE pid = pid_ AND rk = node_rk; " +
+                    "            SET amount_ = amount_ - LEAST(node_stock, amount_); " +
+                    "        END IF; " +
+                    "    END WHILE; " +
+                    "    RETURN TRUE; " +
+                    "END;"
+                );
+            }
+        }
+        catch (SQLException e) {
+            // procedures already exist
+        }
+    }
+
+
+    /**
+     * Creates best_fit_mrv, which first looks for a single record with at least amount_ in stock (the first one in the
+     * ring order from rk_), so the sub only updates (and locks) that record, and otherwise takes the records with
+     * stock in the ring order. It returns the number of records updated (-1 if there is not enough stock), and
+     * remove_stock_mrv is replaced by a wrapper, so the multi product procedures also use it
+     */
+    private void createBestFitProcedure(Connection connection, String dbms, String keyType) {
+        try {
+            String pidType = pidType(keyType);
+            Statement st = connection.createStatement();
+            if (dbms.equals("postgresql")) {
+                st.executeUpdate(
+                    "CREATE OR REPLACE FUNCTION best_fit_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS int " +
+                    "AS $$ " +
+                    "DECLARE node_rk int; " +
+                    "        node_stock int; " +
+                    "        updated int = 0; " +
+                    "BEGIN " +
+                    "    SELECT rk INTO node_rk " +
+                    "    FROM Product_Stock " +
+                    "    WHERE pid = pid_ AND stock >= amount_ " +
+                    "    ORDER BY rk < rk_, rk " +
+                    "    LIMIT 1; " +
+                    "    IF FOUND THEN " +
+                    "        UPDATE Product_Stock " +
+                    "        SET stock = stock - amount_ " +
+                    "        WHERE pid = pid_ AND rk = node_rk AND stock >= amount_; " +
+                    "        IF FOUND THEN " +
+                    "            RETURN 1; " +
+                    "        END IF; " +
+                    "    END IF; " +
+                    "    WHILE amount_ > 0 LOOP " +
+                    "        SELECT rk, stock INTO node_rk, node_stock " +
+                    "        FROM Product_Stock " +
+                    "        WHERE pid = pid_ AND stock > 0 " +
+                    "        ORDER BY rk < rk_, rk " +
+                    "        LIMIT 1 " +
+                    "        FOR UPDATE; " +
+                    "        IF NOT FOUND THEN " +
+                    "            RETURN -1; " +
+                    "        END IF; " +
+                    "        UPDATE Product_Stock " +
+                    "        SET stock = stock - LEAST(stock, amount_) " +
+                    "        WHERE pid = pid_ AND rk = node_rk; " +
+                    "        updated = updated + 1; " +
+                    "        amount_ = amount_ - LEAST(node_stock, amount_); " +
+                    "    END LOOP; " +
+                    "    RETURN updated; " +
+                    "END " +
+                    "$$ LANGUAGE plpgsql;"
+                );
+                st.executeUpdate(
+                    "CREATE OR REPLACE FUNCTION remove_stock_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS bool " +
+                    "AS $$ " +
+                    "BEGIN " +
+                    "    RETURN best_fit_mrv(amount_, pid_, rk_) >= 0; " +
+                    "END " +
+                    "$$ LANGUAGE plpgsql;"
+                );
+            }
+            else if (dbms.equals("mysql") || dbms.equals("mariadb")) {
+                st.executeUpdate("DROP FUNCTION IF EXISTS best_fit_mrv");
+                st.executeUpdate(
+                    "CREATE FUNCTION best_fit_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS int DETERMINISTIC  " +
+                    "BEGIN  " +
+                    "    DECLARE node_rk int; " +
+                    "    DECLARE node_stock int; " +
+                    "    DECLARE updated int DEFAULT 0; " +
+                    "    DECLARE CONTINUE HANDLER FOR NOT FOUND SET node_rk = NULL; " +
+                    "    SET node_rk = NULL; " +
+                    "    SELECT rk INTO node_rk " +
+                    "    FROM Product_Stock " +
+                    "    WHERE pid = pid_ AND stock >= amount_ " +
+                    "    ORDER BY rk < rk_, rk " +
+                    "    LIMIT 1; " +
+                    "    IF node_rk IS NOT NULL THEN " +
+                    "        UPDATE Product_Stock " +
+                    "        SET stock = stock - amount_ " +
+                    "        WHERE pid = pid_ AND rk = node_rk AND stock >= amount_; " +
+                    "        IF ROW_COUNT() = 1 THEN " +
+                    "            RETURN 1; " +
+                    "        END IF; " +
+                    "    END IF; " +
+                    "    WHILE amount_ > 0 DO " +
+                    "        SET node_rk = NULL; " +
+                    "        SELECT rk, stock INTO node_rk, node_stock " +
+                    "        FROM Product_Stock " +
+                    "        WHERE pid = pid_ AND stock > 0 " +
+                    "        ORDER BY rk < rk_, rk " +
+                    "        LIMIT 1 " +
+                    "        FOR UPDATE; " +
+                    "        IF node_rk IS NULL THEN " +
+                    "            RETURN -1; " +
+                    "        END IF; " +
+                    "        UPDATE Product_Stock " +
+                    "        SET stock = stock - LEAST(stock, amount_) " +
+                    "        WHERE pid = pid_ AND rk = node_rk; " +
+                    "        SET updated = updated + 1; " +
+                    "        SET amount_ = amount_ - LEAST(node_stock, amount_); " +
+                    "    END WHILE; " +
+                    "    RETURN updated; " +
+                    "END;"
+                );
+                st.executeUpdate("DROP FUNCTION IF EXISTS remove_stock_mrv");
+                st.executeUpdate(
+                    "CREATE FUNCTION remove_stock_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS bool DETERMINISTIC  " +
+                    "BEGIN  " +
+                    "    RETURN best_fit_mrv(amount_, pid_, rk_) >= 0; " +
+                    "END;"
+                );
+            }
+        }
+        catch (SQLException e) {
+            // procedures already exist
+        }
+    }
+
+
+    /**
+     * Creates the procedure that decrements a single known record (record directory), guarded by stock >= amount_,
+     * which returns 1 if the record was updated, 0 if it does not have enough stock and -1 if it no longer exists
+     */
+    private void createRemoveRecordProcedure(Connection connection, String dbms, String keyType) {
+        try {
+            String pidType = pidType(keyType);
+            Statement st = connection.createStatement();
+            if (dbms.equals("postgresql")) {
+                st.executeUpdate(
+                    "CREATE OR REPLACE FUNCTION remove_record_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS int " +
+                    "AS $$ " +
+                    "BEGIN " +
+                    "    UPDATE Product_Stock " +
+                    "    SET stock = stock - amount_ " +
+                    "    WHERE pid = pid_ AND rk = rk_ AND stock >= amount_; " +
+                    "    IF FOUND THEN " +
+                    "        RETURN 1; " +
+                    "    END IF; " +
+                    "    PERFORM 1 FROM Product_Stock WHERE pid = pid_ AND rk = rk_; " +
+                    "    IF FOUND THEN " +
+                    "        RETURN 0; " +
+                    "    END IF; " +
+                    "    RETURN -1; " +
+                    "END " +
+                    "$$ LANGUAGE plpgsql;"
+                );
+            }
+            else if (dbms.equals("mysql") || dbms.equals("mariadb")) {
+                st.executeUpdate("DROP FUNCTION IF EXISTS remove_record_mrv");
+                st.executeUpdate(
+                    "CREATE FUNCTION remove_record_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS int DETERMINISTIC  " +
+                    "BEGIN  " +
+                    "    UPDATE Product_Stock " +
+                    "    SET stock = stock - amount_ " +
+                    "    WHERE pid = pid_ AND rk = rk_ AND stock >= amount_; " +
+                    "    IF ROW_COUNT() = 1 THEN " +
+                    "        RETURN 1; " +
+                    "    END IF; " +
+                    "    IF EXISTS (SELECT 1 FROM Product_Stock WHERE pid = pid_ AND rk = rk_) THEN " +
+                    "        RETURN 0; " +
+                    "    END IF; " +
+                    "    RETURN -1; " +
+                    "END;"
+                );
+            }
+        }
+        catch (SQLException e) {
+            // procedures already exist
+        }
+    }
+
+
+    /**
+     * Creates the procedure that checks if a product has at least amount_ in stock, reading the records in the ring
+     * order from rk_ and stopping as soon as the amount is reached
+     */
+    private void createHasStockProcedure(Connection connection, String dbms, String keyType) {
+        try {
+            String pidType = pidType(keyType);
+            Statement st = connection.createStatement();
+            if (dbms.equals("postgresql")) {
+                st.executeUpdate(
+                    "CREATE OR REPLACE FUNCTION has_stock_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS bool " +
+                    "AS $$ " +
+                    "DECLARE node_stock int; " +
+                    "        cur CURSOR FOR " +
+                    "            (SELECT stock " +
+                    "            FROM Product_Stock " +
+                    "            WHERE pid = pid_ AND rk >= rk_ " +
+                    "            ORDER BY RK) " +
+                    "            UNION ALL " +
+                    "            (SELECT stock " +
+                    "            FROM Product_Stock " +
+                    "            WHERE pid = pid_ AND rk < rk_ " +
+                    "            ORDER BY RK); " +
+                    "BEGIN " +
+                    "    OPEN cur; " +
+                    "    WHILE amount_ > 0 LOOP " +
+                    "        FETCH cur INTO node_stock; " +
+                    "        IF NOT FOUND THEN " +
+                    "            CLOSE cur; " +
+                    "            RETURN FALSE; " +
+                    "        END IF; " +
+                    "        amount_ = amount_ - node_stock; " +
+                    "    END LOOP; " +
+                    "    CLOSE cur; " +
+                    "    RETURN TRUE; " +
+                    "END " +
+                    "$$ LANGUAGE plpgsql;"
+                );
+            }
+            else if (dbms.equals("mysql") || dbms.equals("mariadb")) {
+                st.executeUpdate("DROP FUNCTION IF EXISTS has_stock_mrv");
+                st.executeUpdate(
+                    "CREATE FUNCTION has_stock_mrv(amount_ int, pid_ " + pidType + ", rk_ int) RETURNS bool DETERMINISTIC  " +
+                    "BEGIN  " +
+                    "    DECLARE done BOOL DEFAULT FALSE; " +
+                    "    DECLARE node_stock int; " +
                     "    DECLARE cur CURSOR FOR " +
-                    "        (SELECT rk " +
+                    "        (SELECT stock " +
                     "        FROM Product_Stock " +
                     "        WHERE pid = pid_ AND rk >= rk_ " +
                     "        ORDER BY RK) " +
                     "        UNION ALL " +
-                    "        (SELECT rk " +
+                    "        (SELECT stock " +
                     "        FROM Product_Stock " +
                     "        WHERE pid = pid_ AND rk < rk_ " +
-                    "        ORDER BY RK) " +
-                    "        LIMIT 1; " +
+                    "        ORDER BY RK); " +
+                    "    DECLARE CONTINUE HANDLER FOR NOT FOUND SET done = TRUE; " +
                     "    OPEN cur; " +
-                    "    FETCH cur INTO node_rk; " +
-                    "    UPDATE Product_Stock  " +
-                    "    SET stock = stock + amount_  " +
-                    "    WHERE pid = pid_  " +
-                    "        AND rk = node_rk; " +
+                    "    WHILE NOT done AND amount_ > 0 DO " +
+                    "        FETCH cur INTO node_stock; " +
+                    "        IF NOT done THEN " +
+                    "            SET amount_ = amount_ - node_stock; " +
+                    "        END IF; " +
+                    "    END WHILE; " +
                     "    CLOSE cur; " +
-                    "    RETURN true;  " +
+                    "    RETURN amount_ <= 0; " +
+                    "END;"
+                );
+            }
+        }
+        catch (SQLException e) {
+            // procedures already exist
+        }
+    }
+
+
+    /**
+     * Creates the procedure that leases stock (escrow mode), which moves up to amount_ from the record with the most
+     * stock to the owner's lease and returns the amount moved (0 if the product has no stock)
+     */
+    private void createLeaseProcedure(Connection connection, String dbms, String keyType) {
+        try {
+            String pidType = pidType(keyType);
+            Statement st = connection.createStatement();
+            if (dbms.equals("postgresql")) {
+                st.executeUpdate(
+                    "CREATE OR REPLACE FUNCTION lease_stock_mrv(amount_ int, pid_ " + pidType + ", owner_ int) RETURNS int " +
+                    "AS $$ " +
+                    "DECLARE node_rk int; " +
+                    "        node_stock int; " +
+                    "BEGIN " +
+                    "    SELECT rk, stock INTO node_rk, node_stock " +
+                    "    FROM Product_Stock " +
+                    "    WHERE pid = pid_ AND stock > 0 " +
+                    "    ORDER BY stock DESC " +
+                    "    LIMIT 1 " +
+                    "    FOR UPDATE; " +
+                    "    IF NOT FOUND THEN " +
+                    "        RETURN 0; " +
+                    "    END IF; " +
+                    "    node_stock = LEAST(node_stock, amount_); " +
+                    "    UPDATE Product_Stock " +
+                    "    SET stock = stock - node_stock " +
+                    "    WHERE pid = pid_ AND rk = node_rk; " +
+                    "    INSERT INTO Product_Lease VALUES (pid_, owner_, node_stock) " +
+                    "    ON CONFLICT (pid, owner) DO UPDATE SET amount = Product_Lease.amount + node_stock; " +
+                    "    RETURN node_stock; " +
+                    "END " +
+                    "$$ LANGUAGE plpgsql;"
+                );
+            }
+            else if (dbms.equals("mysql") || dbms.equals("mariadb")) {
+                st.executeUpdate("DROP FUNCTION IF EXISTS lease_stock_mrv");
+                st.executeUpdate(
+                    "CREATE FUNCTION lease_stock_mrv(amount_ int, pid_ " + pidType + ", owner_ int) RETURNS int DETERMINISTIC  " +
+                    "BEGIN  " +
+                    "    DECLARE node_rk int DEFAULT NULL; " +
+                    "    DECLARE node_stock int; " +
+                    "    DECLARE CONTINUE HANDLER FOR NOT FOUND SET node_rk = NULL; " +
+                    "    SELECT rk, stock INTO node_rk, node_stock " +
+                    "    FROM Product_Stock " +
+                    "    WHERE pid = pid_ AND stock > 0 " +
+                    "    ORDER BY stock DESC " +
+                    "    LIMIT 1 " +
+                    "    FOR UPDATE; " +
+                    "    IF node_rk IS NULL THEN " +
+                    "        RETURN 0; " +
+                    "    END IF; " +
+                    "    SET node_stock = LEAST(node_stock, amount_); " +
+                    "    UPDATE Product_Stock " +
+                    "    SET stock = stock - node_stock " +
+                    "    WHERE pid = pid_ AND rk = node_rk; " +
+                    "    INSERT INTO Product_Lease VALUES (pid_, owner_, node_stock) " +
+                    "    ON DUPLICATE KEY UPDATE amount = amount + node_stock; " +
+                    "    RETURN node_stock; " +
+                    "END;"
+                );
+            }
+        }
+        catch (SQLException e) {
+            // procedures already exist
+        }
+    }
+
+
+    /**
+     * Creates the multi product procedures, which call remove_stock_mrv/add_stock_mrv for each product in the given
+     * order (arrays in postgresql, comma separated lists in mysql/mariadb)
+     * remove_stock_mrv_multi returns the index of the first product without enough stock (or -1 if none)
+     */
+    private void createMultiProcedures(Connection connection, String dbms, String keyType) {
+        try {
+            String pidType = pidType(keyType);
+            Statement st = connection.createStatement();
+            if (dbms.equals("postgresql")) {
+                st.executeUpdate(
+                    "CREATE OR REPLACE FUNCTION remove_stock_mrv_multi(amounts_ int[], pids_ " + pidType + "[], rks_ int[]) " +
+                    "RETURNS int " +
+                    "AS $$ " +
+                    "BEGIN " +
+                    "    FOR i IN 1 .. array_length(pids_, 1) LOOP " +
+                    "        IF NOT remove_stock_mrv(amounts_[i], pids_[i], rks_[i]) THEN " +
+                    "            RETURN i - 1; " +
+                    "        END IF; " +
+                    "    END LOOP; " +
+                    "    RETURN -1; " +
+                    "END " +
+                    "$$ LANGUAGE plpgsql;"
+                );
+
+                st.executeUpdate(
+                    "CREATE OR REPLACE FUNCTION add_stock_mrv_multi(amounts_ int[], pids_ " + pidType + "[], rks_ int[]) " +
+                    "RETURNS int " +
+                    "AS $$ " +
+                    "BEGIN " +
+                    "    FOR i IN 1 .. array_length(pids_, 1) LOOP " +
+                    "        PERFORM add_stock_mrv(amounts_[i], pids_[i], rks_[i]); " +
+                    "    END LOOP; " +
+                    "    RETURN -1; " +
+                    "END " +
+                    "$$ LANGUAGE plpgsql;"
+                );
+            }
+            else if (dbms.equals("mysql") || dbms.equals("mariadb")) {
+                st.executeUpdate("DROP FUNCTION IF EXISTS remove_stock_mrv_multi");
+                st.executeUpdate("DROP FUNCTION IF EXISTS add_stock_mrv_multi");
+                st.executeUpdate(
+                    "CREATE FUNCTION remove_stock_mrv_multi(amounts_ text, pids_ text, rks_ text) RETURNS int DETERMINISTIC " +
+                    "BEGIN " +
+                    "    DECLARE i int DEFAULT 0; " +
+                    "    DECLARE n int DEFAULT LENGTH(pids_) - LENGTH(REPLACE(pids_, ',', '')) + 1; " +
+                    "    WHILE i < n DO " +
+                    "        IF NOT remove_stock_mrv( " +
+                    "                SUBSTRING_INDEX(SUBSTRING_INDEX(amounts_, ',', i + 1), ',', -1), " +
+                    "                SUBSTRING_INDEX(SUBSTRING_INDEX(pids_, ',', i + 1), ',', -1), " +
+                    "                SUBSTRING_INDEX(SUBSTRING_INDEX(rks_, ',', i + 1), ',', -1)) THEN " +
+                    "            RETURN i; " +
+                    "        END IF; " +
+                    "        SET i = i + 1; " +
+                    "    END WHILE; " +
+                    "    RETURN -1; " +
+                    "END;"
+                );
+
+                st.executeUpdate(
+                    "CREATE FUNCTION add_stock_mrv_multi(amounts_ text, pids_ text, rks_ text) RETURNS int DETERMINISTIC " +
+                    "BEGIN " +
+                    "    DECLARE i int DEFAULT 0; " +
+                    "    DECLARE n int DEFAULT LENGTH(pids_) - LENGTH(REPLACE(pids_, ',', '')) + 1; " +
+                    "    DECLARE r bool; " +
+                    "    WHILE i < n DO " +
+                    "        SET r = add_stock_mrv( " +
+                    "                SUBSTRING_INDEX(SUBSTRING_INDEX(amounts_, ',', i + 1), ',', -1), " +
+                    "                SUBSTRING_INDEX(SUBSTRING_INDEX(pids_, ',', i + 1), ',', -1), " +
+                    "                SUBSTRING_INDEX(SUBSTRING_INDEX(rks_, ',', i + 1), ',', -1)); " +
+                    "        SET i = i + 1; " +
+                    "    END WHILE; " +
+                    "    RETURN -1; " +
                     "END;"
                 );
             }
@@ -241,6 +856,68 @@ public class TransactionsMrvSQL implements Transactions {
         st.execute("DELETE FROM Product_Orig");
         st.execute("DELETE FROM Product_Stock");
         st.execute("DELETE FROM Product_Tx");
+        st.execute("DELETE FROM Product_Lease");
+        st.execute("DELETE FROM Product_Total");
+        st.execute("DELETE FROM Product_Delta");
+    }
+
+
+    /**
+     * Creates the triggers that append the changes of Product_Stock and Product_Lease to Product_Delta
+     * (created after the populate, whose stock is summed directly into Product_Total)
+     */
+    private void createTotalsTriggers(Connection connection, String dbms) throws SQLException {
+        Statement st = connection.createStatement();
+        String[][] tables = {{"Product_Stock", "stock"}, {"Product_Lease", "amount"}};
+        for (String[] t: tables) {
+            String table = t[0];
+            String column = t[1];
+            if (dbms.equals("postgresql")) {
+                st.executeUpdate(
+                    "CREATE OR REPLACE FUNCTION " + table + "_delta() RETURNS trigger " +
+                    "AS $$ " +
+                    "BEGIN " +
+                    "    IF TG_OP = 'INSERT' AND NEW." + column + " <> 0 THEN " +
+                    "        INSERT INTO Product_Delta (pid, delta) VALUES (NEW.pid, NEW." + column + "); " +
+                    "    ELSIF TG_OP = 'UPDATE' AND NEW." + column + " <> OLD." + column + " THEN " +
+                    "        INSERT INTO Product_Delta (pid, delta) VALUES (NEW.pid, NEW." + column + " - OLD." + column + "); " +
+                    "    ELSIF TG_OP = 'DELETE' AND OLD." + column + " <> 0 THEN " +
+                    "        INSERT INTO Product_Delta (pid, delta) VALUES (OLD.pid, -OLD." + column + "); " +
+                    "    END IF; " +
+                    "    RETURN NULL; " +
+                    "END " +
+                    "$$ LANGUAGE plpgsql;"
+                );
+                st.executeUpdate("CREATE TRIGGER " + table + "_delta AFTER INSERT OR UPDATE OR DELETE ON " + table + " " +
+                                 "FOR EACH ROW EXECUTE PROCEDURE " + table + "_delta()");
+            }
+            else {
+                st.executeUpdate(
+                    "CREATE TRIGGER " + table + "_delta_insert AFTER INSERT ON " + table + " FOR EACH ROW " +
+                    "BEGIN " +
+                    "    IF NEW." + column + " <> 0 THEN " +
+                    "        INSERT INTO Product_Delta (pid, delta) VALUES (NEW.pid, NEW." + column + "); " +
+                    "    END IF; " +
+                    "END"
+                );
+                st.executeUpdate(
+                    "CREATE TRIGGER " + table + "_delta_update AFTER UPDATE ON " + table + " FOR EACH ROW " +
+                    "BEGIN " +
+                    "    IF NEW." + column + " <> OLD." + column + " THEN " +
+                    "        INSERT INTO Product_Delta (pid, delta) VALUES (NEW.pid, NEW." + column + " - OLD." + column + "); " +
+                    "    END IF; " +
+                    "END"
+                );
+                st.executeUpdate(
+                    "CREATE TRIGGER " + table + "_delta_delete AFTER DELETE ON " + table + " FOR EACH ROW " +
+                    "BEGIN " +
+                    "    IF OLD." + column + " <> 0 THEN " +
+                    "        INSERT INTO Product_Delta (pid, delta) VALUES (OLD.pid, -OLD." + column + "); " +
+                    "    END IF; " +
+                    "END"
+                );
+            }
+        }
     }
 
 
@@ -249,37 +926,89 @@ public class TransactionsMrvSQL implements Transactions {
                          Map<String, Object> extraConfigs) {
         try {
             TransactionsMrvSQL.maxNodes = (int) extraConfigs.get("maxNodes");
+            TransactionsMrvSQL.multiProductCalls = (boolean) extraConfigs.get("multiProductCalls");
+            TransactionsMrvSQL.rkPlacement = (String) extraConfigs.get("rkPlacement");
+            TransactionsMrvSQL.clients = Math.max((int) extraConfigs.get("clients"), 1);
+            TransactionsMrvSQL.recordDirectory = (boolean) extraConfigs.get("recordDirectory");
+            TransactionsMrvSQL.escrowLeases = (boolean) extraConfigs.get("escrowLeases");
+            TransactionsMrvSQL.savepointRetries = (int) extraConfigs.get("savepointRetries");
+            TransactionsMrvSQL.partialRetries.reset();
+            TransactionsMrvSQL.recordsTouched.reset();
+            TransactionsMrvSQL.subCalls.reset();
+            TransactionsMrvSQL.bestFit = extraConfigs.get("subStrategy").equals("bestFit");
+            TransactionsMrvSQL.incrementalTotals = (boolean) extraConfigs.get("incrementalTotals");
+            TransactionsMrvSQL.stockPartitions = (int) extraConfigs.get("stockPartitions");
+            RecordDirectory.clear(pidLimit);
             int initialNodes = Math.min((int) extraConfigs.get("initialNodes"), maxNodes);
             int zeroNodesPercentage = (int) extraConfigs.get("zeroNodesPercentage");
             int nodesWithStock = Math.max(1, initialNodes - initialNodes * zeroNodesPercentage / 100);
             int stockPerNode = initialStock / nodesWithStock;
+            String keyType = (String) extraConfigs.get("keyType");
             Connection connection = DriverManager.getConnection(connectionString);
             connection.setAutoCommit(true);
 
-            createSchema(connection, dbms);
-            createProcedures(connection, dbms, (int) extraConfigs.get("distributeAddsSize"));
+            createSchema(connection, dbms, keyType);
+            createProcedures(connection, dbms, (int) extraConfigs.get("distributeAddsSize"), keyType);
+            if (extraConfigs.get("subStrategy").equals("skipLocked")) {
+                createSkipLockedProcedure(connection, dbms, keyType);
+            }
+            else if (extraConfigs.get("subStrategy").equals("bestFit")) {
+                createBestFitProcedure(connection, dbms, keyType);
+            }
+            createMultiProcedures(connection, dbms, keyType);
+            createLeaseProcedure(connection, dbms, keyType);
+            createHasStockProcedure(connection, dbms, keyType);
+            createRemoveRecordProcedure(connection, dbms, keyType);
             clean(connection);
 
-            PreparedStatement ps1 = connection.prepareStatement("INSERT INTO Product_Orig (pId) VALUES(?)");
-            PreparedStatement ps2 = connection.prepareStatement("INSERT INTO Product_Stock (pid, rk, stock) VALUES(?, ?, ?)");
+            int populateThreads = (int) extraConfigs.get("populateThreads");
             connection.setAutoCommit(false);
-            Random rand = new Random();
+            if (populateThreads > 0) {
+                BulkLoader.load(connectionString, dbms, "Product_Orig", "pId", "pId", pidLimit, populateThreads,
+                        (i, rand, sink) -> sink.row(keyType.equals("int") ? (Object) i : "p" + i));
+                BulkLoader.load(connectionString, dbms, "Product_Stock", "pId, rk, stock", "pId, rk", pidLimit,
+                        populateThreads, (i, rand, sink) -> {
+                    Object pid = keyType.equals("int") ? (Object) i : "p" + i;
+                    List<Integer> range = IntStream.range(0, maxNodes).boxed().collect(Collectors.toList());
+                    for (int j = 0; j < initialNodes; j++) {
+                        sink.row(pid, range.remove(rand.nextInt(range.size())), j < nodesWithStock ? stockPerNode : 0);
+                    }
+                });
+            }
+            else {
+                PreparedStatement ps1 = connection.prepareStatement("INSERT INTO Product_Orig (pId) VALUES(?)");
+                PreparedStatement ps2 = connection.prepareStatement("INSERT INTO Product_Stock (pid, rk, stock) VALUES(?, ?, ?)");
+                Random rand = new Random();
+
+                for (int i = 0; i < pidLimit ; i++) {
+                    if (keyType.equals("int")) {
+                        ps1.setInt(1, i);
+                        ps2.setInt(1, i); //pk
+                    }
+                    else {
+                        ps1.setString(1, "p" + i);
+                        ps2.setString(1, "p" + i); //pk
+                    }
+                    ps1.addBatch();
+                    List<Integer> range = IntStream.range(0, maxNodes).boxed().collect(Collectors.toList());
+                    for (int j = 0; j < initialNodes; j++) {
+                        ps2.setInt(2, range.remove(rand.nextInt(range.size()))); //rk
+                        ps2.setInt(3, j < nodesWithStock ? stockPerNode : 0); //stock
+                        ps2.addBatch();
+                    }
+                }
 
-            for (int i = 0; i < pidLimit ; i++) {
-                ps1.setString(1, "p" + i);
-                ps1.addBatch();
-                ps2.setString(1, "p" + i); //pk
-                List<Integer> range = IntStream.range(0, maxNodes).boxed().collect(Collectors.toList());
-                for (int j = 0; j < initialNodes; j++) {
-                ps2.setInt(2, range.remove(rand.nextInt(range.size()))); //rk
-                ps2.setInt(3, j < nodesWithStock ? stockPerNode : 0); //stock
-                ps2.addBatch();
+                ps1.executeBatch();
+                ps2.executeBatch();
+                connection.commit();
             }
-        }
 
-            ps1.executeBatch();
-            ps2.executeBatch();
-            connection.commit();
+            if (incrementalTotals) {
+                connection.createStatement().executeUpdate(
+                        "INSERT INTO Product_Total SELECT pid, SUM(stock) FROM Product_Stock GROUP BY pid");
+                createTotalsTriggers(connection, dbms);
+                connection.commit();
+            }
 
             if (dbms.equals("postgresql")) {
                 connection.setAutoCommit(true);
@@ -288,6 +1017,14 @@ public class TransactionsMrvSQL implements Transactions {
             }
 
             connection.close();
+
+            if (escrowLeases) {
+                StockLeases.start(connectionString, keyType, pidLimit, (int) extraConfigs.get("leaseSize"),
+                        (int) extraConfigs.get("leaseMillis"), (int) extraConfigs.get("leaseFlushMillis"), maxNodes);
+            }
+            if (incrementalTotals) {
+                TotalsCompactor.start(connectionString, dbms, (int) extraConfigs.get("compactionMillis"));
+            }
         }
         catch (Exception e) {
             e.printStackTrace();
@@ -305,9 +1042,29 @@ public class TransactionsMrvSQL implements Transactions {
     public void setConnection(String connectionString, String dbms, int isolation) throws Exception {
         connection = DriverManager.getConnection(connectionString);
         connection.setTransactionIsolation(isolation);
-        decrementStock = connection.prepareStatement("SELECT remove_stock_mrv(?, ?, ?)");
+        decrementStock = connection.prepareStatement(bestFit
+                ? "SELECT best_fit_mrv(?, ?, ?)"
+                : "SELECT remove_stock_mrv(?, ?, ?)");
         incrementStock = connection.prepareStatement("SELECT add_stock_mrv(?, ?, ?)");
-        getStock = connection.prepareStatement("SELECT total from Total_Stock WHERE pid = ?");
+        decrementStockMulti = connection.prepareStatement("SELECT remove_stock_mrv_multi(?, ?, ?)");
+        incrementStockMulti = connection.prepareStatement("SELECT add_stock_mrv_multi(?, ?, ?)");
+        decrementRecord = connection.prepareStatement("SELECT remove_record_mrv(?, ?, ?)");
+        incrementRecord = connection.prepareStatement("UPDATE Product_Stock SET stock = stock + ? WHERE pid = ? AND rk = ?");
+        productRks = connection.prepareStatement("SELECT rk FROM Product_Stock WHERE pid = ? ORDER BY rk");
+        countRecords = connection.prepareStatement("SELECT COUNT(*) FROM Product_Stock WHERE pid = ?");
+        this.dbms = dbms;
+        if (incrementalTotals) {
+            // summary row plus the deltas not compacted yet
+            getStock = connection.prepareStatement(
+                    "SELECT t.total + COALESCE(SUM(d.delta), 0) " +
+                    "FROM Product_Total AS t LEFT JOIN Product_Delta AS d ON d.pid = t.pid " +
+                    "WHERE t.pid = ? " +
+                    "GROUP BY t.total");
+        }
+        else {
+            getStock = connection.prepareStatement("SELECT total from Total_Stock WHERE pid = ?");
+        }
+        hasAtLeast = connection.prepareStatement("SELECT has_stock_mrv(?, ?, ?)");
         if (dbms.equals("postgresql")) {
             Statement s = connection.createStatement();
             s.execute("set random_page_cost = 0");
@@ -326,31 +1083,303 @@ public class TransactionsMrvSQL implements Transactions {
     }
 
 
-    private void endTransaction(String pId, boolean committed) {
-        MrvWorkersSQL.addTxResult(pId, committed);
+    /**
+     * Binds the i-th product key (either from the string keys or the integer ids, whichever is not null)
+     */
+    private static void setPid(PreparedStatement ps, int index, List<String> pIds, int[] ids, int i)
+            throws SQLException {
+        if (ids != null) {
+            ps.setInt(index, ids[i]);
+        }
+        else {
+            ps.setString(index, pIds.get(i));
+        }
+    }
+
+
+    private void endTransaction(List<String> pIds, int[] ids, int i, boolean committed) {
+        if (ids != null) {
+            MrvWorkersSQL.addTxResult(ids[i], committed);
+        }
+        else {
+            MrvWorkersSQL.addTxResult(pIds.get(i), committed);
+        }
+    }
+
+
+    // failed < 0 when the product that caused the abort is unknown (all are logged as aborted)
+    private void endTransaction(List<String> pIds, int[] ids, int n, int failed, boolean committed) {
+        if (committed || failed < 0) {
+            for (int i = 0; i < n; i++) {
+                endTransaction(pIds, ids, i, committed);
+            }
+        }
+        else {
+            endTransaction(pIds, ids, failed, false);
+        }
+    }
+
+
+    /**
+     * Returns the rk where the next operation on the i-th product starts looking for records
+     * (with affinity, an existing rk from the client's slice of the product's records, taken from the record
+     * directory, so clients start at different records; random if the product has no records)
+     */
+    private int nextRk(List<String> pIds, int[] ids, int i) throws SQLException {
+        if (rkPlacement.equals("affinity")) {
+            int[] rks = productRks(pIds, ids, i);
+            if (rks.length > 0) {
+                return pickRk(rks);
+            }
+        }
+        return rand.nextInt(maxNodes);
+    }
+
+
+    /**
+     * Returns the rks of the i-th product from the record directory (loaded if missing)
+     */
+    private int[] productRks(List<String> pIds, int[] ids, int i) throws SQLException {
+        int product = ids != null ? ids[i] : RecordDirectory.index(pIds.get(i));
+        int[] rks = RecordDirectory.get(product);
+        if (rks == null) {
+            // the snapshot may predate this query (repeatable read), so the list is only cached if the product was
+            // not invalidated since the transaction began
+            setPid(productRks, 1, pIds, ids, i);
+            ResultSet rs = productRks.executeQuery();
+            List<Integer> l = new ArrayList<>();
+            while (rs.next()) {
+                l.add(rs.getInt(1));
+            }
+            rks = l.stream().mapToInt(Integer::intValue).toArray();
+            RecordDirectory.put(product, generations[i], rks);
+        }
+        return rks;
+    }
+
+
+    /**
+     * Reads the record directory generations of the products of a transaction, before its first statement
+     */
+    private void readGenerations(List<String> pIds, int[] ids, int n) {
+        if (!recordDirectory && !rkPlacement.equals("affinity")) {
+            return;
+        }
+        if (generations.length < n) {
+            generations = new long[n];
+        }
+        for (int i = 0; i < n; i++) {
+            generations[i] = RecordDirectory.generation(ids != null ? ids[i] : RecordDirectory.index(pIds.get(i)));
+        }
+    }
+
+
+    /**
+     * Returns a cached rk of a product (with affinity, from the client's slice of the product's records)
+     */
+    private int pickRk(int[] rks) {
+        if (rkPlacement.equals("affinity")) {
+            int slice = id % clients;
+            int begin = slice * rks.length / clients;
+            int end = (slice + 1) * rks.length / clients;
+            if (end > begin) {
+                return rks[begin + rand.nextInt(end - begin)];
+            }
+        }
+        return rks[rand.nextInt(rks.length)];
+    }
+
+
+    /**
+     * Updates the i-th product in a single record, chosen from the record directory (loaded if missing)
+     * @return True if the record was updated, False if the ring procedure must be used
+     * (unknown record or, when decrementing, not enough stock in the record)
+     */
+    private boolean updateRecord(boolean decrement, List<String> pIds, int[] ids, int i, int amount)
+            throws SQLException {
+        int product = ids != null ? ids[i] : RecordDirectory.index(pIds.get(i));
+        int[] rks = productRks(pIds, ids, i);
+        if (rks.length == 0) {
+            return false;
+        }
+
+        PreparedStatement ps = decrement ? decrementRecord : incrementRecord;
+        ps.setInt(1, amount);
+        setPid(ps, 2, pIds, ids, i);
+        ps.setInt(3, pickRk(rks));
+        boolean updated;
+        boolean removed;
+        if (decrement) {
+            // 1 - updated, 0 - not enough stock, -1 - removed
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            int result = rs.getInt(1);
+            updated = result == 1;
+            removed = result == -1;
+        }
+        else {
+            updated = ps.executeUpdate() == 1;
+            removed = !updated;
+        }
+        if (removed) {
+            RecordDirectory.invalidate(product);
+        }
+        return updated;
+    }
+
+
+    /**
+     * Calls remove_stock_mrv/add_stock_mrv for the i-th product, starting at a random rk
+     * With savepointRetries > 0, a conflict only rolls back this call (to a savepoint) and it is retried with another
+     * rk, so the products already updated in the transaction are kept
+     * @return Result of the procedure
+     */
+    private boolean callProcedure(PreparedStatement ps, List<String> pIds, int[] ids, int i, int amount)
+            throws SQLException {
+        for (int attempt = 0; ; attempt++) {
+            Savepoint savepoint = savepointRetries > 0 ? connection.setSavepoint() : null;
+            try {
+                ps.setInt(1, amount);
+                setPid(ps, 2, pIds, ids, i);
+                ps.setInt(3, nextRk(pIds, ids, i));
+                ResultSet rs = ps.executeQuery();
+                rs.next();
+                boolean result;
+                if (ps == decrementStock && bestFit) {
+                    // records updated, -1 if there is not enough stock
+                    int updated = rs.getInt(1);
+                    result = updated >= 0;
+                    if (result) {
+                        subCalls.increment();
+                        recordsTouched.add(updated);
+                    }
+                }
+                else {
+                    result = rs.getBoolean(1);
+                }
+                if (savepoint != null) {
+                    connection.releaseSavepoint(savepoint);
+                }
+                return result;
+            }
+            catch (SQLException e) {
+                if (savepoint == null || attempt >= savepointRetries) {
+                    throw e;
+                }
+                // fails (aborting the transaction) if the dbms already rolled back the whole transaction
+                connection.rollback(savepoint);
+                partialRetries.increment();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of procedure calls retried from a savepoint since the populate
+     */
+    public static long partialRetries() {
+        return partialRetries.sum();
     }
 
 
-    private void endTransaction(List<String> pIds, boolean committed) {
-        for (String pId: pIds) {
-            MrvWorkersSQL.addTxResult(pId, committed);
+    /**
+     * Returns the average number of records updated per successful sub since the populate
+     * (subStrategy bestFit only, 0 otherwise; multi product calls are not included)
+     */
+    public static double recordsPerSub() {
+        long calls = subCalls.sum();
+        return calls > 0 ? (double) recordsTouched.sum() / calls : 0;
+    }
+
+
+    /**
+     * Serves a sub of all products from the local leases, giving back the amounts taken if some product fails
+     * @return True if served (and written back), False if the sub must use the records
+     */
+    private boolean takeLeases(List<String> pIds, int[] ids, int n, int amount) {
+        StockLeases leases = StockLeases.instance();
+        for (int i = 0; i < n; i++) {
+            if (!leases.take(ids != null ? ids[i] : RecordDirectory.index(pIds.get(i)), amount)) {
+                for (int j = 0; j < i; j++) {
+                    leases.giveBack(ids != null ? ids[j] : RecordDirectory.index(pIds.get(j)), amount);
+                }
+                return false;
+            }
+        }
+        leases.awaitWriteBack();
+        return true;
+    }
+
+
+    /**
+     * Binds the amounts, product keys and starting rks of a multi product procedure call
+     * (arrays in postgresql, comma separated lists in mysql/mariadb, so the keys must not contain commas)
+     */
+    private void setMultiParameters(PreparedStatement ps, List<String> pIds, int[] ids, int n, int amount)
+            throws SQLException {
+        Object[] amounts = new Object[n];
+        Object[] keys = new Object[n];
+        Object[] rks = new Object[n];
+        for (int i = 0; i < n; i++) {
+            amounts[i] = amount;
+            keys[i] = ids != null ? (Object) ids[i] : pIds.get(i);
+            rks[i] = nextRk(pIds, ids, i);
+        }
+        if (dbms.equals("postgresql")) {
+            ps.setArray(1, connection.createArrayOf("integer", amounts));
+            ps.setArray(2, connection.createArrayOf(ids != null ? "integer" : "varchar", keys));
+            ps.setArray(3, connection.createArrayOf("integer", rks));
+        }
+        else {
+            ps.setString(1, Arrays.stream(amounts).map(String::valueOf).collect(Collectors.joining(",")));
+            ps.setString(2, Arrays.stream(keys).map(String::valueOf).collect(Collectors.joining(",")));
+            ps.setString(3, Arrays.stream(rks).map(String::valueOf).collect(Collectors.joining(",")));
         }
     }
 
 
     @Override
     public int decrementStock(List<String> pIds, int amount) {
-        String p = pIds.get(0);
+        return decrementStock(pIds, null, pIds.size(), amount);
+    }
+
+
+    @Override
+    public int decrementStock(int[] pIds, int amount) {
+        return decrementStock(null, pIds, pIds.length, amount);
+    }
+
+
+    private int decrementStock(List<String> pIds, int[] ids, int n, int amount) {
+        if (escrowLeases && takeLeases(pIds, ids, n, amount)) {
+            endTransaction(pIds, ids, n, 0, true);
+            return 1;
+        }
+        readGenerations(pIds, ids, n);
+        int p = 0;
         try {
-            for (String pId: pIds) {
-                p = pId;
-                int rk = rand.nextInt(maxNodes);
-                decrementStock.setInt(1, amount);
-                decrementStock.setString(2, pId);
-                decrementStock.setInt(3, rk);
-                ResultSet rs = decrementStock.executeQuery();
+            if (multiProductCalls && n > 1) {
+                // single round trip; the product that causes a conflict is unknown
+                p = -1;
+                setMultiParameters(decrementStockMulti, pIds, ids, n, amount);
+                ResultSet rs = decrementStockMulti.executeQuery();
                 rs.next();
-                boolean result = rs.getBoolean(1);
+                int failed = rs.getInt(1);
+                if (failed >= 0) {
+                    connection.rollback();
+                    return -1;
+                }
+            }
+            for (int i = 0; i < n && p >= 0; i++) {
+                p = i;
+                if (recordDirectory && updateRecord(true, pIds, ids, i, amount)) {
+                    if (bestFit) {
+                        subCalls.increment();
+                        recordsTouched.increment();
+                    }
+                    continue;
+                }
+                boolean result = callProcedure(decrementStock, pIds, ids, i, amount);
 
                 if (!result) {
                     connection.rollback();
@@ -358,13 +1387,13 @@ public class TransactionsMrvSQL implements Transactions {
                 }
             }
             connection.commit();
-            endTransaction(pIds, true);
+            endTransaction(pIds, ids, n, p, true);
             return 1;
         }
         catch (SQLException e) {
             try {
                 connection.rollback();
-                endTransaction(p, false);
+                endTransaction(pIds, ids, n, p, false);
                 return 0;
             }
             catch (SQLException ex) {
@@ -377,24 +1406,47 @@ public class TransactionsMrvSQL implements Transactions {
 
     @Override
     public boolean incrementStock(List<String> pIds, int amount) {
-        String p = pIds.get(0);
+        return incrementStock(pIds, null, pIds.size(), amount);
+    }
+
+
+    @Override
+    public boolean incrementStock(int[] pIds, int amount) {
+        return incrementStock(null, pIds, pIds.length, amount);
+    }
+
+
+    private boolean incrementStock(List<String> pIds, int[] ids, int n, int amount) {
+        readGenerations(pIds, ids, n);
+        int p = 0;
         try {
-            for (String pId: pIds) {
-                p = pId;
-                int rk = rand.nextInt(maxNodes);
-                incrementStock.setInt(1, amount);
-                incrementStock.setString(2, pId);
-                incrementStock.setInt(3, rk);
-                incrementStock.execute();
+            if (multiProductCalls && n > 1) {
+                // single round trip; the product that causes a conflict is unknown
+                p = -1;
+                setMultiParameters(incrementStockMulti, pIds, ids, n, amount);
+                incrementStockMulti.execute();
+            }
+            for (int i = 0; i < n && p >= 0; i++) {
+                p = i;
+                if (recordDirectory && updateRecord(false, pIds, ids, i, amount)) {
+                    continue;
+                }
+                callProcedure(incrementStock, pIds, ids, i, amount);
             }
             connection.commit();
-            endTransaction(pIds, true);
+            if (escrowLeases) {
+                // the products can be leased again
+                for (int i = 0; i < n; i++) {
+                    StockLeases.instance().added(ids != null ? ids[i] : RecordDirectory.index(pIds.get(i)));
+                }
+            }
+            endTransaction(pIds, ids, n, p, true);
             return true;
         }
         catch (Exception e) {
             try {
                 connection.rollback();
-                endTransaction(p, false);
+                endTransaction(pIds, ids, n, p, false);
                 return false;
             }
             catch (SQLException ex) {
@@ -411,7 +1463,7 @@ public class TransactionsMrvSQL implements Transactions {
             getStock.setString(1, pId);
             ResultSet rs = getStock.executeQuery();
             rs.next();
-            endTransaction(pId, true);
+            MrvWorkersSQL.addTxResult(pId, true);
             return rs.getInt(1);
         } 
         catch (SQLException e) {
@@ -419,4 +1471,82 @@ public class TransactionsMrvSQL implements Transactions {
             return 0;
         }
     }
+
+
+    @Override
+    public int getStock(int pId) {
+        try {
+            getStock.setInt(1, pId);
+            ResultSet rs = getStock.executeQuery();
+            rs.next();
+            MrvWorkersSQL.addTxResult(pId, true);
+            return rs.getInt(1);
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+
+    @Override
+    public int records(String pId) {
+        return records(Collections.singletonList(pId), null);
+    }
+
+
+    @Override
+    public int records(int pId) {
+        return records(null, new int[]{pId});
+    }
+
+
+    private int records(List<String> pIds, int[] ids) {
+        try {
+            setPid(countRecords, 1, pIds, ids, 0);
+            ResultSet rs = countRecords.executeQuery();
+            rs.next();
+            int n = rs.getInt(1);
+            connection.commit();
+            return n;
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+
+    @Override
+    public boolean hasAtLeast(String pId, int amount) {
+        return hasAtLeast(Collections.singletonList(pId), null, amount);
+    }
+
+
+    @Override
+    public boolean hasAtLeast(int pId, int amount) {
+        return hasAtLeast(null, new int[]{pId}, amount);
+    }
+
+
+    private boolean hasAtLeast(List<String> pIds, int[] ids, int amount) {
+        // the totals are already a short read (and the records do not include the leased stock)
+        if (incrementalTotals || escrowLeases) {
+            return ids != null ? getStock(ids[0]) >= amount : getStock(pIds.get(0)) >= amount;
+        }
+        readGenerations(pIds, ids, 1);
+        try {
+            hasAtLeast.setInt(1, amount);
+            setPid(hasAtLeast, 2, pIds, ids, 0);
+            hasAtLeast.setInt(3, nextRk(pIds, ids, 0));
+            ResultSet rs = hasAtLeast.executeQuery();
+            rs.next();
+            endTransaction(pIds, ids, 0, true);
+            return rs.getBoolean(1);
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
 }
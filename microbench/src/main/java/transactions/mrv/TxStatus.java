@@ -5,7 +5,8 @@ import java.time.LocalDateTime;
 
 public class TxStatus {
 
-    public String pId;
+    public String pId; // null with integer keys
+    public int id;
     public boolean committed;
     public LocalDateTime time;
 
@@ -14,4 +15,10 @@ public class TxStatus {
         this.committed = committed;
         this.time = time;
     }
+
+    public TxStatus(int id, boolean committed, LocalDateTime time) {
+        this.id = id;
+        this.committed = committed;
+        this.time = time;
+    }
 }
@@ -1,5 +1,6 @@
 package transactions.normal;
 
+import transactions.BulkLoader;
 import transactions.Transactions;
 
 import java.sql.*;
@@ -14,6 +15,7 @@ public class TransactionsNormalSQL implements Transactions {
     private Connection connection;
     private PreparedStatement updateStock;
     private PreparedStatement getStock;
+    private PreparedStatement hasAtLeast;
     private int id;
 
 
@@ -24,12 +26,22 @@ public class TransactionsNormalSQL implements Transactions {
 
 
     /**
-     * Creates the schema
+     * Returns the type of the pId column
+     * @param keyType varchar ("p" + id keys) or int
      */
-    private void createSchema(Connection connection, String dbms) {
+    private static String pidType(String keyType) {
+        return keyType.equals("int") ? "int" : "varchar(255)";
+    }
+
+
+    /**
+     * Creates the schema (recreated, as the pId type depends on the key type)
+     */
+    private void createSchema(Connection connection, String dbms, String keyType) {
         try {
             Statement st = connection.createStatement();
-            st.execute("CREATE TABLE IF NOT EXISTS Product (pId varchar(255) PRIMARY KEY, stock int)");
+            st.execute("DROP TABLE IF EXISTS Product");
+            st.execute("CREATE TABLE Product (pId " + pidType(keyType) + " PRIMARY KEY, stock int)");
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -39,11 +51,12 @@ public class TransactionsNormalSQL implements Transactions {
     /**
      * Create Procedures (mysql and mariadb don't support update with returns)
      */
-    private void createProcedures(Connection connection, String dbms) {
+    private void createProcedures(Connection connection, String dbms, String keyType) {
         try {
             Statement st = connection.createStatement();
             if (dbms.equals("mysql") || dbms.equals("mariadb")) {
-                st.executeUpdate("CREATE PROCEDURE update_stock(amount int, pId varchar(255)) " + "BEGIN "
+                st.executeUpdate("DROP PROCEDURE IF EXISTS update_stock");
+                st.executeUpdate("CREATE PROCEDURE update_stock(amount int, pId " + pidType(keyType) + ") " + "BEGIN "
                         + "UPDATE Product " + "SET stock = @stock := stock + amount " + "WHERE Product.pId = pId; "
                         + "SELECT @stock; " + "END;");
             }
@@ -66,24 +79,37 @@ public class TransactionsNormalSQL implements Transactions {
     public void populate(String connectionString, String dbms, int pidLimit, int initialStock,
             Map<String, Object> extraConfigs) {
         try {
+            String keyType = (String) extraConfigs.get("keyType");
             Connection connection = DriverManager.getConnection(connectionString);
             connection.setAutoCommit(true);
 
-            createSchema(connection, dbms);
-            createProcedures(connection, dbms);
+            createSchema(connection, dbms, keyType);
+            createProcedures(connection, dbms, keyType);
             clean(connection);
 
-            PreparedStatement ps = connection.prepareStatement("INSERT INTO Product (pId, stock) VALUES(?, ?)");
+            int populateThreads = (int) extraConfigs.get("populateThreads");
             connection.setAutoCommit(false);
-
-            for (int i = 0; i < pidLimit; i++) {
-                ps.setString(1, "p" + i);
-                ps.setInt(2, initialStock);
-                ps.addBatch();
+            if (populateThreads > 0) {
+                BulkLoader.load(connectionString, dbms, "Product", "pId, stock", "pId", pidLimit, populateThreads,
+                        (i, rand, sink) -> sink.row(keyType.equals("int") ? (Object) i : "p" + i, initialStock));
             }
+            else {
+                PreparedStatement ps = connection.prepareStatement("INSERT INTO Product (pId, stock) VALUES(?, ?)");
+
+                for (int i = 0; i < pidLimit; i++) {
+                    if (keyType.equals("int")) {
+                        ps.setInt(1, i);
+                    }
+                    else {
+                        ps.setString(1, "p" + i);
+                    }
+                    ps.setInt(2, initialStock);
+                    ps.addBatch();
+                }
 
-            ps.executeBatch();
-            connection.commit();
+                ps.executeBatch();
+                connection.commit();
+            }
 
             if (dbms.equals("postgresql")) {
                 connection.setAutoCommit(true);
@@ -118,6 +144,7 @@ public class TransactionsNormalSQL implements Transactions {
         }
 
         getStock = connection.prepareStatement("SELECT stock FROM Product WHERE pid = ?");
+        hasAtLeast = connection.prepareStatement("SELECT stock >= ? FROM Product WHERE pid = ?");
 
         connection.setAutoCommit(false);
     }
@@ -133,12 +160,37 @@ public class TransactionsNormalSQL implements Transactions {
     }
 
 
+    /**
+     * Binds the i-th product key (either from the string keys or the integer ids, whichever is not null)
+     */
+    private static void setPid(PreparedStatement ps, int index, List<String> pIds, int[] ids, int i)
+            throws SQLException {
+        if (ids != null) {
+            ps.setInt(index, ids[i]);
+        }
+        else {
+            ps.setString(index, pIds.get(i));
+        }
+    }
+
+
     @Override
     public int decrementStock(List<String> pIds, int amount) {
+        return decrementStock(pIds, null, pIds.size(), amount);
+    }
+
+
+    @Override
+    public int decrementStock(int[] pIds, int amount) {
+        return decrementStock(null, pIds, pIds.length, amount);
+    }
+
+
+    private int decrementStock(List<String> pIds, int[] ids, int n, int amount) {
         try {
-            for (String pId: pIds) {
+            for (int i = 0; i < n; i++) {
                 updateStock.setInt(1, -amount);
-                updateStock.setString(2, pId);
+                setPid(updateStock, 2, pIds, ids, i);
                 ResultSet rs = updateStock.executeQuery();
                 rs.next();
                 int finalStock = rs.getInt(1);
@@ -163,10 +215,21 @@ public class TransactionsNormalSQL implements Transactions {
 
     @Override
     public boolean incrementStock(List<String> pIds, int amount) {
+        return incrementStock(pIds, null, pIds.size(), amount);
+    }
+
+
+    @Override
+    public boolean incrementStock(int[] pIds, int amount) {
+        return incrementStock(null, pIds, pIds.length, amount);
+    }
+
+
+    private boolean incrementStock(List<String> pIds, int[] ids, int n, int amount) {
         try {
-            for (String pId: pIds) {
+            for (int i = 0; i < n; i++) {
                 updateStock.setInt(1, amount);
-                updateStock.setString(2, pId);
+                setPid(updateStock, 2, pIds, ids, i);
                 updateStock.execute();
             }
             connection.commit();
@@ -186,13 +249,66 @@ public class TransactionsNormalSQL implements Transactions {
     public int getStock(String pId) {
         try {
             getStock.setString(1, pId);
-            ResultSet rs = getStock.executeQuery();
-            rs.next();
-            return rs.getInt(1);
+            return getStock();
         } 
         catch (SQLException e) {
             e.printStackTrace();
             return 0;
         }
     }
+
+
+    @Override
+    public int getStock(int pId) {
+        try {
+            getStock.setInt(1, pId);
+            return getStock();
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+
+    private int getStock() throws SQLException {
+        ResultSet rs = getStock.executeQuery();
+        rs.next();
+        return rs.getInt(1);
+    }
+
+
+    @Override
+    public boolean hasAtLeast(String pId, int amount) {
+        try {
+            hasAtLeast.setInt(1, amount);
+            hasAtLeast.setString(2, pId);
+            return hasAtLeast();
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+
+    @Override
+    public boolean hasAtLeast(int pId, int amount) {
+        try {
+            hasAtLeast.setInt(1, amount);
+            hasAtLeast.setInt(2, pId);
+            return hasAtLeast();
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+
+    private boolean hasAtLeast() throws SQLException {
+        ResultSet rs = hasAtLeast.executeQuery();
+        rs.next();
+        return rs.getBoolean(1);
+    }
 }
@@ -1,5 +1,6 @@
 package transactions.phaseReconciliation;
 
+import transactions.BulkLoader;
 import transactions.Transactions;
 
 import java.sql.*;
@@ -15,6 +16,7 @@ public class TransactionsPhaseReconciliation implements Transactions {
     private PreparedStatement updateStockJoined;
     private PreparedStatement updateStockSplit;
     private PreparedStatement getStock;
+    private PreparedStatement hasAtLeast;
     private int id;
 
     @Override
@@ -34,7 +36,9 @@ public class TransactionsPhaseReconciliation implements Transactions {
     private void createSchema(Connection connection, String dbms) {
         try {
             Statement st = connection.createStatement();
-            st.execute("CREATE TABLE IF NOT EXISTS Product (pId varchar(255) PRIMARY KEY, stock int)");
+            // shared with the normal type, which may have created it with integer keys
+            st.execute("DROP TABLE IF EXISTS Product");
+            st.execute("CREATE TABLE Product (pId varchar(255) PRIMARY KEY, stock int)");
             st.execute("CREATE TABLE IF NOT EXISTS Product_Split_Stock (pId varchar(255), core_id int, stock int, PRIMARY KEY (pId, core_id))");
             st.execute("CREATE TABLE IF NOT EXISTS Product_Stats (pid varchar(255) PRIMARY KEY, commits int, aborts int, no_stock int)");
         }
@@ -88,25 +92,38 @@ public class TransactionsPhaseReconciliation implements Transactions {
             createProcedures(connection, dbms);
             clean(connection);
 
-            PreparedStatement ps1 = connection.prepareStatement("INSERT INTO Product (pId, stock) VALUES(?, ?)");
-            PreparedStatement ps2 = connection.prepareStatement("INSERT INTO Product_Split_Stock (pId, core_id, stock) VALUES(?, ?, ?)");
+            int populateThreads = (int) extraConfigs.get("populateThreads");
             connection.setAutoCommit(false);
-
-            for (int i = 0; i < pidLimit; i++) {
-                ps1.setString(1, "p" + i);
-                ps1.setInt(2, initialStock);
-                ps1.addBatch();
-                for (int j = 0; j < cores; j++) {
-                    ps2.setString(1, "p" + i);
-                    ps2.setInt(2, j);
-                    ps2.setInt(3, 0);
-                    ps2.addBatch();
-                }
+            if (populateThreads > 0) {
+                BulkLoader.load(connectionString, dbms, "Product", "pId, stock", "pId", pidLimit, populateThreads,
+                        (i, rand, sink) -> sink.row("p" + i, initialStock));
+                BulkLoader.load(connectionString, dbms, "Product_Split_Stock", "pId, core_id, stock", "pId, core_id",
+                        pidLimit, populateThreads, (i, rand, sink) -> {
+                    for (int j = 0; j < cores; j++) {
+                        sink.row("p" + i, j, 0);
+                    }
+                });
             }
+            else {
+                PreparedStatement ps1 = connection.prepareStatement("INSERT INTO Product (pId, stock) VALUES(?, ?)");
+                PreparedStatement ps2 = connection.prepareStatement("INSERT INTO Product_Split_Stock (pId, core_id, stock) VALUES(?, ?, ?)");
+
+                for (int i = 0; i < pidLimit; i++) {
+                    ps1.setString(1, "p" + i);
+                    ps1.setInt(2, initialStock);
+                    ps1.addBatch();
+                    for (int j = 0; j < cores; j++) {
+                        ps2.setString(1, "p" + i);
+                        ps2.setInt(2, j);
+                        ps2.setInt(3, 0);
+                        ps2.addBatch();
+                    }
+                }
 
-            ps1.executeBatch();
-            ps2.executeBatch();
-            connection.commit();
+                ps1.executeBatch();
+                ps2.executeBatch();
+                connection.commit();
+            }
 
             if (dbms.equals("postgresql")) {
                 connection.setAutoCommit(true);
@@ -144,6 +161,7 @@ public class TransactionsPhaseReconciliation implements Transactions {
         }
 
         getStock = connection.prepareStatement("SELECT stock FROM Product WHERE pid = ?");
+        hasAtLeast = connection.prepareStatement("SELECT stock >= ? FROM Product WHERE pid = ?");
 
         connection.setAutoCommit(false);
     }
@@ -265,4 +283,24 @@ public class TransactionsPhaseReconciliation implements Transactions {
             return 0;
         }
     }
+
+
+    @Override
+    public boolean hasAtLeast(String pId, int amount) {
+        try {
+            PhaseReconciliationCoordinator.coordinator.handlePhaseChanges(pId, this.id);
+            PhaseReconciliationCoordinator.coordinator.waitForJoinedPhase(pId, this.id);
+
+            hasAtLeast.setInt(1, amount);
+            hasAtLeast.setString(2, pId);
+            ResultSet rs = hasAtLeast.executeQuery();
+            rs.next();
+            AddStatusWorker.addStatusWorker.incrementCommits(pId);
+            return rs.getBoolean(1);
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
 }
@@ -453,7 +453,8 @@ fig13 () {
         _set micro maxNodes "2048"
     fi
     mvn exec:java -Dexec.mainClass="Main"
-    rm *monitor*.csv
+    # (mysql uses multiple servers, so the per server results are also written)
+    rm -f *monitor*.csv *servers*.csv
     mv *.csv ../reproducibility/results/fig13/$1.csv
 
     _setup_cluster $1 remove
@@ -578,6 +579,77 @@ tab4() {
 }
 
 
+# adds to one record vs distributed among the distributeAddsSize emptiest records (zero records in the output)
+distributedAdds () {
+    echo "Running ${FUNCNAME[0]} $*"
+    if [[ $# -ne 1 ]] || ! [[ $1 == +(postgres|mysql) ]]; then
+        echo "Usage: distributedAdds (postgres|mysql)"
+        exit 1
+    fi
+
+    mkdir -p results/distributedAdds
+    cd ../microbench
+
+    # database
+    _setMicrobenchDb $1
+    _setup_cluster $1 start
+
+    # execute
+    _set micro clients "[64]"
+    _set micro sizes "[100000]"
+    _set micro accessDistribution "powerlaw"
+    _set micro types "[mrv]"
+    _set micro initialStocks "[100000000]"
+    _set micro opDistribution "uneven"
+    _set micro unevenScales "[100000000]"
+    _set micro initialNodes "[64]"
+    _set micro workers "balance"
+    _set micro zeroNodesPercentages "[100]"
+    _set micro balanceWindows "[100]"
+    for d in 0 4 16 64; do
+        _set micro distributeAddsSize "$d"
+        mvn exec:java -Dexec.mainClass="Main"
+        rm -f *monitor*.csv *servers*.csv
+        mv *.csv ../reproducibility/results/distributedAdds/$1-$d.csv
+    done
+
+    _setup_cluster $1 remove
+}
+
+
+# single vs hash partitioned Product_Stock/Product_Tx with large catalogs
+partitioning () {
+    echo "Running ${FUNCNAME[0]} $*"
+    if [[ $# -ne 1 ]] || ! [[ $1 == +(postgres|mysql) ]]; then
+        echo "Usage: partitioning (postgres|mysql)"
+        exit 1
+    fi
+
+    mkdir -p results/partitioning
+    cd ../microbench
+
+    # database
+    _setMicrobenchDb $1
+    _setup_cluster $1 start
+
+    # execute
+    _set micro clients "[64]"
+    _set micro sizes "[1000000, 10000000]"
+    _set micro types "[mrv]"
+    _set micro initialNodes "[8]"
+    _set micro accessDistribution "powerlaw"
+    _set micro populateThreads "8"
+    for p in 0 16 64; do
+        _set micro stockPartitions "$p"
+        mvn exec:java -Dexec.mainClass="Main"
+        rm -f *monitor*.csv *servers*.csv
+        mv *.csv ../reproducibility/results/partitioning/$1-$p.csv
+    done
+
+    _setup_cluster $1 remove
+}
+
+
 _finish () {
     popd > /dev/null
     _recover_confs
@@ -596,7 +668,9 @@ list_of_experiments="List of experiments:
   fig 12 [micro|tpcc|vacation]
   fig 13 (postgres|mongodb|mysql)
   fig 14
-  tab4"
+  tab4
+  partitioning (postgres|mysql)
+  distributedAdds (postgres|mysql)"
 
 _recover_confs
 _init